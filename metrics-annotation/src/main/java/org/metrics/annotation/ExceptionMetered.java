@@ -0,0 +1,28 @@
+package org.metrics.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a meter each time the method throws a {@link #cause()}. Without a
+ * name the meter is named after the method with an {@code .exceptions}
+ * suffix.
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ExceptionMetered {
+	String name() default "";
+
+	/**
+	 * The type of exceptions to count, subclasses included.
+	 */
+	Class<? extends Throwable> cause() default Exception.class;
+
+	/**
+	 * Counts each exception class in its own meter, tagged
+	 * {@code exception=<class name>}.
+	 */
+	boolean perException() default false;
+}
@@ -9,4 +9,10 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Timered {
 	String name() default "";
+
+	/**
+	 * Records successful calls and calls that threw in separate timers,
+	 * tagged {@code outcome=success} and {@code outcome=failure}.
+	 */
+	boolean outcome() default false;
 }
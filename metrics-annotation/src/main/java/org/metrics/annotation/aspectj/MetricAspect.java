@@ -1,60 +1,181 @@
 package org.metrics.annotation.aspectj;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.metrics.annotation.ExceptionMetered;
 import org.metrics.annotation.Metered;
 import org.metrics.annotation.Timered;
 import org.metrics.core.Meter;
+import org.metrics.core.MetricId;
 import org.metrics.core.MetricRegistry;
 import org.metrics.core.Timer;
 
-
+/**
+ * Records {@link Metered}, {@link Timered} and {@link ExceptionMetered}
+ * methods. The metrics of a method, including the split by outcome, are
+ * resolved on its first call.
+ *
+ * <p>
+ * With Spring AOP, declare the aspect as a bean with its registry and enable
+ * {@code @EnableAspectJAutoProxy}; only calls through the proxy are recorded.
+ *
+ * <p>
+ * With AspectJ weaving, advised calls skip the proxy and the reflective join
+ * point. AspectJ creates the aspect with the no-arg constructor, which records
+ * into {@link #defaultRegistry()}; set it with
+ * {@link #setDefaultRegistry(MetricRegistry)} at startup. For load-time
+ * weaving, run with {@code -javaagent:aspectjweaver.jar}, the aspect is
+ * declared in this jar's {@code META-INF/aop.xml}. For compile-time weaving
+ * with the aspectj-maven-plugin, list this artifact under
+ * {@code weaveDependencies} rather than {@code aspectLibraries}: the aspect
+ * is compiled by javac, and ajc only turns it into a woven aspect when it is
+ * on the inpath. Do not combine weaving with Spring auto-proxying, Spring
+ * rejects aspects compiled by ajc.
+ */
 @Aspect
 public class MetricAspect extends AbstractAspectSupport{
-	
+
+	private static final String OUTCOME = "outcome";
+	private static final String EXCEPTION = "exception";
+
+	private final MethodCache<Outcomes<Meter>> meters = new MethodCache<>();
+	private final MethodCache<Outcomes<Timer>> timers = new MethodCache<>();
+	private final MethodCache<ExceptionMeters> exceptionMeters = new MethodCache<>();
+	private final Function<Method, Outcomes<Meter>> meterResolver = this::resolveMeter;
+	private final Function<Method, Outcomes<Timer>> timerResolver = this::resolveTimer;
+	private final Function<Method, ExceptionMeters> exceptionMeterResolver = this::resolveExceptionMeter;
+
+	public MetricAspect() {
+	}
+
 	public MetricAspect(MetricRegistry registry) {
 		super(registry);
 	}
 
-    @Around("@annotation(org.metrics.annotation.Metered)")
+    @Around("execution(@org.metrics.annotation.Metered * *(..))")
     public Object invokeWithMetered(ProceedingJoinPoint pjp) throws Throwable {
-        Method originMethod = resolveMethod(pjp);
+        Outcomes<Meter> meters = resolve(pjp, this.meters, meterResolver);
+        Object result;
+        try {
+            result = pjp.proceed();
+        } catch (Throwable e) {
+            meters.failure.mark();
+            throw e;
+        }
+        meters.success.mark();
+        return result;
+    }
 
-        Metered annotation = originMethod.getAnnotation(Metered.class);
-        if (annotation == null) {
-            throw new IllegalStateException("Wrong state for Metered annotation");
+    @Around("execution(@org.metrics.annotation.Timered * *(..))")
+    public Object invokeWithTimered(ProceedingJoinPoint pjp) throws Throwable {
+        Outcomes<Timer> timers = resolve(pjp, this.timers, timerResolver);
+        Timer.Context context = timers.success.time();
+        boolean success = false;
+        try {
+            Object result = pjp.proceed();
+            success = true;
+            return result;
+        } finally {
+            context.stop(success ? timers.success : timers.failure);
         }
+    }
+
+    @Around("execution(@org.metrics.annotation.ExceptionMetered * *(..))")
+    public Object invokeWithExceptionMetered(ProceedingJoinPoint pjp) throws Throwable {
         try {
             return pjp.proceed();
-        }catch (Throwable ex) {
-            throw ex;
-        } finally {
-        	 String metricName = annotation.name();
-        	 Meter meter=registry.meter(metricName);
-        	 meter.mark();
+        } catch (Throwable e) {
+            ExceptionMeters meters = resolve(pjp, exceptionMeters, exceptionMeterResolver);
+            if (meters.cause.isInstance(e)) {
+                meters.meter(e).mark();
+            }
+            throw e;
         }
     }
-    
-    @Around("@annotation(org.metrics.annotation.Timered)")
-    public Object invokeWithTimered(ProceedingJoinPoint pjp) throws Throwable {
-        Method originMethod = resolveMethod(pjp);
 
-        Timered annotation = originMethod.getAnnotation(Timered.class);
+    private Outcomes<Meter> resolveMeter(Method method) {
+        Metered annotation = method.getAnnotation(Metered.class);
         if (annotation == null) {
             throw new IllegalStateException("Wrong state for Metered annotation");
         }
-        String metricName = annotation.name();
-   	    Timer timer=registry.timber(metricName);
-   	    timer.start();
-        try {
-             return pjp.proceed();
-        }catch (Throwable ex) {
-            throw ex;
-        } finally {
-        	 timer.stop();
+        MetricId id = MetricId.of(metricName(annotation.name(), method));
+        if (!annotation.outcome()) {
+            Meter meter = registry().meter(id);
+            return new Outcomes<Meter>(meter, meter);
+        }
+        return new Outcomes<Meter>(registry().meter(id.tagged(OUTCOME, "success")),
+                registry().meter(id.tagged(OUTCOME, "failure")));
+    }
+
+    private Outcomes<Timer> resolveTimer(Method method) {
+        Timered annotation = method.getAnnotation(Timered.class);
+        if (annotation == null) {
+            throw new IllegalStateException("Wrong state for Timered annotation");
+        }
+        MetricId id = MetricId.of(metricName(annotation.name(), method));
+        if (!annotation.outcome()) {
+            Timer timer = registry().timber(id);
+            return new Outcomes<Timer>(timer, timer);
+        }
+        return new Outcomes<Timer>(registry().timber(id.tagged(OUTCOME, "success")),
+                registry().timber(id.tagged(OUTCOME, "failure")));
+    }
+
+    private ExceptionMeters resolveExceptionMeter(Method method) {
+        ExceptionMetered annotation = method.getAnnotation(ExceptionMetered.class);
+        if (annotation == null) {
+            throw new IllegalStateException("Wrong state for ExceptionMetered annotation");
+        }
+        String name = annotation.name().isEmpty() ? metricName("", method) + ".exceptions" : annotation.name();
+        return new ExceptionMeters(registry(), MetricId.of(name), annotation.cause(), annotation.perException());
+    }
+
+    /**
+     * The metrics of the two outcomes of a method, the same metric twice if
+     * outcomes are not split.
+     */
+    private static final class Outcomes<M> {
+        final M success;
+        final M failure;
+
+        Outcomes(M success, M failure) {
+            this.success = success;
+            this.failure = failure;
+        }
+    }
+
+    private static final class ExceptionMeters {
+        final Class<? extends Throwable> cause;
+        private final MetricRegistry registry;
+        private final MetricId id;
+        private final Meter meter;
+        private final ConcurrentMap<Class<?>, Meter> perException;
+
+        ExceptionMeters(MetricRegistry registry, MetricId id, Class<? extends Throwable> cause,
+                boolean perException) {
+            this.cause = cause;
+            this.registry = registry;
+            this.id = id;
+            this.meter = perException ? null : registry.meter(id);
+            this.perException = perException ? new ConcurrentHashMap<Class<?>, Meter>() : null;
+        }
+
+        Meter meter(Throwable e) {
+            if (meter != null) {
+                return meter;
+            }
+            Meter result = perException.get(e.getClass());
+            if (result == null) {
+                result = perException.computeIfAbsent(e.getClass(),
+                        type -> registry.meter(id.tagged(EXCEPTION, type.getName())));
+            }
+            return result;
         }
     }
 }
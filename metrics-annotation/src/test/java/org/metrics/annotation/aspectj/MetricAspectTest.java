@@ -0,0 +1,115 @@
+package org.metrics.annotation.aspectj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.metrics.annotation.ExceptionMetered;
+import org.metrics.annotation.Metered;
+import org.metrics.annotation.Timered;
+import org.metrics.core.MetricId;
+import org.metrics.core.MetricRegistry;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+public class MetricAspectTest {
+
+	public interface Service {
+		void metered(boolean fail) throws IOException;
+
+		void timered(boolean fail) throws IOException;
+
+		void exceptions(Exception e) throws Exception;
+	}
+
+	public static class DefaultService implements Service {
+
+		@Override
+		@Metered(name = "metered", outcome = true)
+		public void metered(boolean fail) throws IOException {
+			call(fail);
+		}
+
+		@Override
+		@Timered(name = "timered", outcome = true)
+		public void timered(boolean fail) throws IOException {
+			call(fail);
+		}
+
+		@Override
+		@ExceptionMetered(name = "exceptions", cause = IOException.class, perException = true)
+		public void exceptions(Exception e) throws Exception {
+			throw e;
+		}
+
+		private void call(boolean fail) throws IOException {
+			if (fail) {
+				throw new IOException();
+			}
+		}
+	}
+
+	private MetricRegistry registry;
+	private Service service;
+
+	@Before
+	public void setUp() {
+		registry = new MetricRegistry();
+		AspectJProxyFactory factory = new AspectJProxyFactory(new DefaultService());
+		factory.addInterface(Service.class);
+		factory.addAspect(new MetricAspect(registry));
+		service = factory.getProxy();
+	}
+
+	@Test
+	public void meteredOutcomeTest() throws IOException {
+		service.metered(false);
+		service.metered(false);
+		try {
+			service.metered(true);
+			fail();
+		} catch (IOException expected) {
+		}
+
+		assertEquals(2, registry.meter(MetricId.of("metered", "outcome", "success")).getCount());
+		assertEquals(1, registry.meter(MetricId.of("metered", "outcome", "failure")).getCount());
+		assertFalse(registry.getMetrics().containsKey(MetricId.of("metered")));
+	}
+
+	@Test
+	public void timeredOutcomeTest() throws IOException {
+		service.timered(false);
+		try {
+			service.timered(true);
+			fail();
+		} catch (IOException expected) {
+		}
+
+		// timer counts move on samples
+		assertEquals(1, registry.timber(MetricId.of("timered", "outcome", "success")).sample().getCount());
+		assertEquals(1, registry.timber(MetricId.of("timered", "outcome", "failure")).sample().getCount());
+	}
+
+	@Test
+	public void exceptionMeteredTest() {
+		Exception[] thrown = { new IOException(), new FileNotFoundException(), new IOException(),
+				new IllegalStateException() };
+		for (Exception e : thrown) {
+			try {
+				service.exceptions(e);
+				fail();
+			} catch (Exception expected) {
+				assertEquals(e, expected);
+			}
+		}
+
+		assertEquals(2, registry.meter(MetricId.of("exceptions", "exception", "java.io.IOException")).getCount());
+		assertEquals(1,
+				registry.meter(MetricId.of("exceptions", "exception", "java.io.FileNotFoundException")).getCount());
+		assertEquals(2, registry.getMetrics().size());
+	}
+}
@@ -0,0 +1,75 @@
+package org.metrics.benchmark.woven;
+
+import java.util.concurrent.TimeUnit;
+
+import org.metrics.annotation.Metered;
+import org.metrics.annotation.Timered;
+import org.metrics.annotation.aspectj.MetricAspect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call overhead of {@link MetricAspect} woven at compile time, the
+ * counterpart of the proxied calls of {@code MetricAspectBenchmark} in
+ * metrics-benchmarks, which runs with the same settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WovenMetricAspectBenchmark {
+
+	public static class WovenService {
+
+		public int plain(int value) {
+			return value + 1;
+		}
+
+		@Metered(name = "metered")
+		public int metered(int value) {
+			return value + 1;
+		}
+
+		@Timered(name = "timered")
+		public int timered(int value) {
+			return value + 1;
+		}
+	}
+
+	private WovenService service;
+	private int value;
+
+	@Setup
+	public void setup() {
+		service = new WovenService();
+		service.timered(value);
+		if (MetricAspect.defaultRegistry().timber("timered").getCount() == 0) {
+			throw new IllegalStateException("MetricAspect is not woven, build with the aspectj-maven-plugin.");
+		}
+	}
+
+	@Benchmark
+	public int plain() {
+		return service.plain(value);
+	}
+
+	@Benchmark
+	public int wovenMetered() {
+		return service.metered(value);
+	}
+
+	@Benchmark
+	public int wovenTimered() {
+		return service.timered(value);
+	}
+}
@@ -0,0 +1,37 @@
+package org.metrics.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count, doubling from one
+ * thread up to the number of available processors, so contention on the
+ * recording paths shows up as a flat or falling throughput curve.
+ *
+ * <pre>
+ * java -jar metrics-benchmarks/target/benchmarks.jar [include-regex] [max-threads]
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+
+		int threads = 1;
+		while (true) {
+			Options options = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.build();
+			new Runner(options).run();
+			if (threads >= maxThreads) {
+				break;
+			}
+			threads = Math.min(threads * 2, maxThreads);
+		}
+	}
+}
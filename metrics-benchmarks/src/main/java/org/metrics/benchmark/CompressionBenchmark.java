@@ -0,0 +1,126 @@
+package org.metrics.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.metric.transport.http.HttpSender;
+import org.metric.transport.http.HttpSender.Body;
+import org.metric.transport.http.HttpSender.Compression;
+import org.metric.transport.http.HttpSender.Request;
+import org.metrics.core.MetricRegistry;
+import org.metrics.core.Timer;
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter;
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter.Node;
+import org.metrics.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of compressing one Elasticsearch bulk report, written to a
+ * stream that only counts bytes. The bytes on the wire for each setting are
+ * printed at setup. {@code gzipStream} is the former per-request
+ * {@link GZIPOutputStream}, for comparison with the pooled deflaters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+	@Param({ "1000", "20000" })
+	private int metrics;
+
+	@Param({ "GZIP", "DEFLATE" })
+	private Compression compression;
+
+	@Param({ "1", "6" })
+	private int level;
+
+	private byte[] payload;
+	private Body body;
+
+	@Setup
+	public void setup() throws IOException {
+		MetricRegistry registry = new MetricRegistry();
+		for (int i = 0; i < metrics / 2; i++) {
+			registry.meter(String.format("service.requests.%05d", i)).mark(i);
+			Timer timer = registry.timber(String.format("service.latency.%05d", i));
+			for (int j = 0; j < 16; j++) {
+				timer.update(j * i % 100, TimeUnit.MILLISECONDS);
+			}
+		}
+		CapturingSender sender = new CapturingSender();
+		ElasticsearchReporter reporter = ElasticsearchReporter.forRegistry(registry)
+				.httBuilder(sender)
+				.esNode(new Node("localhost", 9200))
+				.localHost("127.0.0.1")
+				.build();
+		reporter.report(registry.meterMap(), registry.timerMap());
+		payload = sender.payload;
+
+		Request request = sender.post("http://localhost:9200/_bulk")
+				.content("application/json", "UTF-8", payload)
+				.compress(compression, level)
+				.build();
+		body = request.getBody();
+		CountingStream counter = new CountingStream();
+		body.writeTo(counter);
+		System.out.printf("%n%s level %d: %d bytes, %d on the wire (%.1f%%)%n", compression, level,
+				payload.length, counter.count, 100.0 * counter.count / payload.length);
+	}
+
+	@Benchmark
+	public long pooled() throws IOException {
+		CountingStream counter = new CountingStream();
+		body.writeTo(counter);
+		return counter.count;
+	}
+
+	@Benchmark
+	public long gzipStream() throws IOException {
+		CountingStream counter = new CountingStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(counter)) {
+			gzip.write(payload);
+		}
+		return counter.count;
+	}
+
+	private static class CountingStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	private static class CapturingSender implements HttpSender {
+		private byte[] payload;
+
+		@Override
+		public Response send(Request request) {
+			if (request.getUrI().getPath().endsWith("_bulk")) {
+				payload = request.getEntity();
+			}
+			return new Response(200, StringUtil.EMPTY_STRING);
+		}
+	}
+}
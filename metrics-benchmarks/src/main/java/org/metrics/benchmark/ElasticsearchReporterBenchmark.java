@@ -0,0 +1,80 @@
+package org.metrics.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.metric.transport.http.HttpSender;
+import org.metrics.core.MetricRegistry;
+import org.metrics.core.RegistrySnapshot;
+import org.metrics.core.Timer;
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter;
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter.Node;
+import org.metrics.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization cost of one report interval, measured through
+ * {@link ElasticsearchReporter#report(RegistrySnapshot)} with a sender that
+ * drops the payload. Run with {@code -prof gc} to see the
+ * garbage produced per interval.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElasticsearchReporterBenchmark {
+
+	@Param({ "100", "1000", "20000" })
+	private int metrics;
+
+	private RegistrySnapshot snapshot;
+	private ElasticsearchReporter reporter;
+	private DiscardingSender sender;
+
+	@Setup
+	public void setup() {
+		MetricRegistry registry = new MetricRegistry();
+		for (int i = 0; i < metrics / 2; i++) {
+			registry.meter("meter-" + i).mark();
+			Timer timer = registry.timber("timer-" + i);
+			for (int j = 0; j < 16; j++) {
+				timer.update(j, TimeUnit.MILLISECONDS);
+			}
+		}
+		sender = new DiscardingSender();
+		reporter = ElasticsearchReporter.forRegistry(registry)
+				.httBuilder(sender)
+				.esNode(new Node("localhost", 9200))
+				.localHost("127.0.0.1")
+				.build();
+		reporter.report();
+		snapshot = RegistrySnapshot.of(registry.getClock().getTime(), registry.meterMap(), registry.timerMap());
+	}
+
+	@Benchmark
+	public int report() {
+		reporter.report(snapshot);
+		return sender.length;
+	}
+
+	private static class DiscardingSender implements HttpSender {
+		private int length;
+
+		@Override
+		public Response send(Request request) {
+			length = request.getEntity().length;
+			return new Response(200, StringUtil.EMPTY_STRING);
+		}
+	}
+}
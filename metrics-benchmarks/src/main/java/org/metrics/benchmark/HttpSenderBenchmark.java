@@ -0,0 +1,111 @@
+package org.metrics.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.metric.transport.http.HttpClientSender;
+import org.metric.transport.http.HttpSender;
+import org.metric.transport.http.HttpSender.Response;
+import org.metric.transport.http.HttpUrlConnectionSender;
+import org.metric.transport.http.PooledHttpSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Round trip of one bulk-sized POST through each {@link HttpSender} against
+ * a local in-process HTTP server, so connection setup and body handling
+ * dominate rather than the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpSenderBenchmark {
+
+	private static final byte[] RESPONSE = "{\"took\":1,\"errors\":false}"
+			.getBytes(StandardCharsets.UTF_8);
+
+	@Param({ "HttpUrlConnectionSender", "HttpClientSender", "PooledHttpSender" })
+	private String senderType;
+
+	@Param({ "1024", "262144" })
+	private int payloadSize;
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private HttpSender sender;
+	private String url;
+	private byte[] payload;
+
+	@Setup
+	public void setup() throws IOException {
+		// the server writes headers and body separately, with Nagle on every
+		// response would wait for the delayed ACK of the client
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+		server.createContext("/_bulk", HttpSenderBenchmark::handle);
+		server.setExecutor(serverExecutor);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/_bulk";
+
+		payload = new byte[payloadSize];
+		Arrays.fill(payload, (byte) 'a');
+
+		if ("HttpClientSender".equals(senderType)) {
+			sender = new HttpClientSender();
+		} else if ("PooledHttpSender".equals(senderType)) {
+			sender = new PooledHttpSender();
+		} else {
+			sender = new HttpUrlConnectionSender();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Benchmark
+	public Response post() throws Throwable {
+		return sender.post(url)
+				.content("application/json", "UTF-8", payload)
+				.send();
+	}
+
+	private static void handle(HttpExchange exchange) throws IOException {
+		byte[] buffer = new byte[8192];
+		try (InputStream in = exchange.getRequestBody()) {
+			while (in.read(buffer) != -1) {
+				// drain the request body
+			}
+		}
+		exchange.sendResponseHeaders(200, RESPONSE.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(RESPONSE);
+		}
+	}
+}
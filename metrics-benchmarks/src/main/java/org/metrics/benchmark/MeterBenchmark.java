@@ -0,0 +1,42 @@
+package org.metrics.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.metrics.core.Meter;
+import org.metrics.core.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeterBenchmark {
+
+	private Meter meter;
+
+	@Setup
+	public void setup() {
+		meter = new MetricRegistry().meter("meter");
+	}
+
+	@Benchmark
+	public void mark() {
+		meter.mark();
+	}
+
+	@Benchmark
+	public void sample() {
+		meter.sample();
+	}
+}
@@ -0,0 +1,96 @@
+package org.metrics.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.metrics.annotation.Metered;
+import org.metrics.annotation.Timered;
+import org.metrics.annotation.aspectj.MetricAspect;
+import org.metrics.core.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+/**
+ * Per-call overhead of {@link MetricAspect} applied through a Spring AOP
+ * proxy, against a direct call and an unadvised call through the same proxy.
+ * {@code WovenMetricAspectBenchmark} in metrics-benchmarks-woven measures the
+ * same calls with the aspect woven by AspectJ.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricAspectBenchmark {
+
+	public interface Service {
+		int plain(int value);
+
+		int metered(int value);
+
+		int timered(int value);
+	}
+
+	public static class DefaultService implements Service {
+
+		@Override
+		public int plain(int value) {
+			return value + 1;
+		}
+
+		@Override
+		@Metered(name = "metered")
+		public int metered(int value) {
+			return value + 1;
+		}
+
+		@Override
+		@Timered(name = "timered")
+		public int timered(int value) {
+			return value + 1;
+		}
+	}
+
+	private Service direct;
+	private Service proxied;
+	private int value;
+
+	@Setup
+	public void setup() {
+		direct = new DefaultService();
+
+		AspectJProxyFactory factory = new AspectJProxyFactory(new DefaultService());
+		factory.addInterface(Service.class);
+		factory.addAspect(new MetricAspect(new MetricRegistry()));
+		proxied = factory.getProxy();
+	}
+
+	@Benchmark
+	public int direct() {
+		return direct.timered(value);
+	}
+
+	@Benchmark
+	public int proxiedPlain() {
+		return proxied.plain(value);
+	}
+
+	@Benchmark
+	public int proxiedMetered() {
+		return proxied.metered(value);
+	}
+
+	@Benchmark
+	public int proxiedTimered() {
+		return proxied.timered(value);
+	}
+}
@@ -0,0 +1,70 @@
+package org.metrics.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.metrics.core.Meter;
+import org.metrics.core.MetricRegistry;
+import org.metrics.core.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups of already registered metrics, the path every call site without a
+ * cached handle pays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+	@Param({ "16", "1024" })
+	private int size;
+
+	private MetricRegistry registry;
+	private String[] names;
+
+	@Setup
+	public void setup() {
+		registry = new MetricRegistry();
+		names = new String[size];
+		for (int i = 0; i < size; i++) {
+			names[i] = "metric-" + i;
+			registry.meter(names[i]);
+			registry.timber(names[i]);
+		}
+	}
+
+	@Benchmark
+	public Meter meter(ThreadCursor cursor) {
+		return registry.meter(names[cursor.next(size)]);
+	}
+
+	@Benchmark
+	public Timer timer(ThreadCursor cursor) {
+		return registry.timber(names[cursor.next(size)]);
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadCursor {
+		private int index;
+
+		int next(int size) {
+			if (++index == size) {
+				index = 0;
+			}
+			return index;
+		}
+	}
+}
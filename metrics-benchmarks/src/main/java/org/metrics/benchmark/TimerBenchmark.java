@@ -0,0 +1,74 @@
+package org.metrics.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.metrics.core.DecayingReservoir;
+import org.metrics.core.HdrReservoir;
+import org.metrics.core.MetricRegistry;
+import org.metrics.core.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerBenchmark {
+
+	@Param({ "decaying", "hdr" })
+	private String reservoir;
+
+	private Timer timer;
+
+	@Setup
+	public void setup() {
+		timer = new MetricRegistry().timber("timer",
+				"hdr".equals(reservoir) ? HdrReservoir::new : DecayingReservoir::new);
+	}
+
+	@Benchmark
+	public long context() {
+		return timer.time().stop();
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public void startStop() {
+		timer.start();
+		timer.stop();
+	}
+
+	/**
+	 * Records a spread of durations, so min/max tracking sees both new
+	 * extremes and the common no-write case.
+	 */
+	@Benchmark
+	public void update(ThreadCursor cursor) {
+		timer.update(cursor.next() & 1023, TimeUnit.MILLISECONDS);
+	}
+
+	@Benchmark
+	public void sample() {
+		timer.sample();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadCursor {
+		private long value;
+
+		long next() {
+			return value += 0x9E3779B9L;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.metrics.core;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * A gauge that keeps its value for a while, for values that are expensive to
+ * compute, such as the size of a directory. Reporters reading it more often
+ * than the timeout share one computation.
+ *
+ * @param <T>
+ *            the type of the value
+ */
+public abstract class CachedGauge<T> implements Gauge<T> {
+
+	private final Clock clock;
+	private final long timeoutNanos;
+	private long loadedAt;
+	private boolean loaded;
+	private T value;
+
+	protected CachedGauge(long timeout, TimeUnit unit) {
+		this(Clock.defaultClock(), timeout, unit);
+	}
+
+	protected CachedGauge(Clock clock, long timeout, TimeUnit unit) {
+		this.clock = clock;
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Computes the value, called at most once per timeout.
+	 */
+	protected abstract T loadValue();
+
+	@Override
+	public synchronized T getValue() {
+		long tick = clock.getTick();
+		if (!loaded || tick - loadedAt >= timeoutNanos) {
+			value = loadValue();
+			loadedAt = tick;
+			loaded = true;
+		}
+		return value;
+	}
+}
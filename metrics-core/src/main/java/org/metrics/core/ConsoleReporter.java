@@ -2,70 +2,91 @@ package org.metrics.core;
 
 import java.util.Date;
 import java.util.Map;
-import java.util.Map.Entry;
 
-import com.codahale.metrics.Snapshot;
+import org.metrics.core.RegistrySnapshot.Section;
 
 public class ConsoleReporter extends ScheduledReporter{
 
+	private final MetricRegistry registry;
+
 	public  ConsoleReporter(MetricRegistry registry) {
 		super(registry, "console-reporter");
+		this.registry=registry;
+	}
+
+	@Override
+	public void report(Map<MetricId,Meter> meterMap,
+			Map<MetricId, Timer> timerMap) {
+		report(RegistrySnapshot.of(registry.getClock().getTime(), meterMap, timerMap));
 	}
 
 	@Override
-	public void report(Map<String,Meter> meterMap,
-			Map<String, Timer> timerMap) {
-		
-		Date date=new Date();
-		
-		System.out.println(String.format("--Meter--\n%-30s %-10s %-5s %-5s %-10s %-10s %-10s %-10s",
+	public void report(RegistrySnapshot snapshot) {
+
+		Date date=new Date(snapshot.getTimestamp());
+
+		System.out.println(String.format("--Meter--\n%-30s %-10s %-5s %-8s %-10s %-10s %-10s %-10s",
 				"date","name","count","rate","meanRate","m1Rate","m5Rate","m15Rate"));
-		for(Entry<String, Meter> entry:meterMap.entrySet()) {
-			String name=entry.getKey();
-			Meter meter=entry.getValue();
-			System.out.println(String.format("%-30s %-10s %-5d %-5d %-10.3f %-10.3f %-10.3f %-10.3f",
+		Section meters=snapshot.meters();
+		for(int i=0;i<meters.size();i++) {
+			if(!isReported(meters.idleSamples(i))) {
+				continue;
+			}
+			System.out.println(String.format("%-30s %-10s %-5d %-8.3f %-10.3f %-10.3f %-10.3f %-10.3f",
 					date,
-					name,
-					meter.getCount(),
-					meter.getRate(),
-					meter.getMeanRate(),
-					meter.getOneMinuteRate(),
-					meter.getFiveMinuteRate(),
-					meter.getFifteenMinuteRate()
+					meters.id(i),
+					meters.count(i),
+					meters.rate(i),
+					meters.meanRate(i),
+					meters.oneMinuteRate(i),
+					meters.fiveMinuteRate(i),
+					meters.fifteenMinuteRate(i)
 					));
 		}
-		
-		
-		System.out.println(String.format("--Timer--\n%-30s %-10s %-5s %-5s %-10s %-10s %-10s %-10s "
+
+
+		System.out.println(String.format("--Timer--\n%-30s %-10s %-5s %-8s %-10s %-10s %-10s %-10s "
 				+ "%-5s %-5s %-10s %-10s %-10s %-10s",
 				"date","name","count","rate","meanRate",
 				"m1Rate","m5Rate","m15Rate","max","min","avg",
 				"p95","p98","p99"));
-		for(Entry<String, Timer> entry:timerMap.entrySet()) {
-			String name=entry.getKey();
-			Timer timer=entry.getValue();
-			Snapshot snapshot=timer.getSnapshot();
-			
-			System.out.println(String.format("%-30s %-10s %-5d %-5d %-10.3f %-10.3f %-10.3f %-10.3f "
+		Section timers=snapshot.timers();
+		for(int i=0;i<timers.size();i++) {
+			if(!isReported(timers.idleSamples(i))) {
+				continue;
+			}
+			System.out.println(String.format("%-30s %-10s %-5d %-8.3f %-10.3f %-10.3f %-10.3f %-10.3f "
 					+ "%-5d %-5d %-10.3f %-10.3f %-10.3f %-10.3f ",
 					date,
-					name,
-					timer.getCount(),
-					timer.getRate(),
-					timer.getMeanRate(),
-					timer.getOneMinuteRate(),
-					timer.getFiveMinuteRate(),
-					timer.getFifteenMinuteRate(),
-					timer.getMax(),
-					timer.getMin(),
-					timer.getAvg(),
-					snapshot.get95thPercentile(),
-					snapshot.get98thPercentile(),
-					snapshot.get99thPercentile()
+					timers.id(i),
+					timers.count(i),
+					timers.rate(i),
+					timers.meanRate(i),
+					timers.oneMinuteRate(i),
+					timers.fiveMinuteRate(i),
+					timers.fifteenMinuteRate(i),
+					timers.max(i),
+					timers.min(i),
+					timers.avg(i),
+					timers.percentile(i, RegistrySnapshot.P95),
+					timers.percentile(i, RegistrySnapshot.P98),
+					timers.percentile(i, RegistrySnapshot.P99)
 					));
-			
+
+		}
+
+		System.out.println(String.format("--Counter--\n%-30s %-10s %-10s","date","name","count"));
+		Section counters=snapshot.counters();
+		for(int i=0;i<counters.size();i++) {
+			System.out.println(String.format("%-30s %-10s %-10d",date,counters.id(i),counters.count(i)));
 		}
-		
+
+		System.out.println(String.format("--Gauge--\n%-30s %-10s %-10s","date","name","value"));
+		Section gauges=snapshot.gauges();
+		for(int i=0;i<gauges.size();i++) {
+			System.out.println(String.format("%-30s %-10s %-10.3f",date,gauges.id(i),gauges.value(i)));
+		}
+
 	}
 
 }
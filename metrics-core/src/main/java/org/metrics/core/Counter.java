@@ -0,0 +1,33 @@
+package org.metrics.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that goes up and down, such as requests in flight. Updates go to a
+ * striped {@link LongAdder}, so concurrent updates do not contend, and the
+ * stripes are only summed when the count is read.
+ */
+public class Counter implements Metric {
+
+	private final LongAdder count = new LongAdder();
+
+	public void inc() {
+		count.increment();
+	}
+
+	public void inc(long n) {
+		count.add(n);
+	}
+
+	public void dec() {
+		count.decrement();
+	}
+
+	public void dec(long n) {
+		count.add(-n);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+}
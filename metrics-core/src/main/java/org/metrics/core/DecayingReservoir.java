@@ -0,0 +1,32 @@
+package org.metrics.core;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * The default {@link Reservoir}, backed by an
+ * {@link ExponentiallyDecayingReservoir} biased towards the last five
+ * minutes of values.
+ */
+public class DecayingReservoir implements Reservoir {
+
+	private final ExponentiallyDecayingReservoir reservoir;
+
+	public DecayingReservoir() {
+		this.reservoir = new ExponentiallyDecayingReservoir();
+	}
+
+	@Override
+	public void update(long value) {
+		reservoir.update(value);
+	}
+
+	@Override
+	public void sample() {
+	}
+
+	@Override
+	public Snapshot getSnapshot() {
+		return reservoir.getSnapshot();
+	}
+}
@@ -0,0 +1,50 @@
+package org.metrics.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An exponentially-weighted moving average of a rate, updated with the event
+ * count of each sampling interval. The decay is weighted by the actual
+ * interval length, so irregular sampling still yields a per-second rate.
+ */
+class Ewma {
+
+	private final double tau;
+	private volatile boolean initialized = false;
+	private volatile double rate = 0.0;
+
+	/**
+	 * @param minutes
+	 *            the time constant of the average in minutes
+	 */
+	Ewma(int minutes) {
+		this.tau = TimeUnit.MINUTES.toSeconds(minutes);
+	}
+
+	/**
+	 * Folds the events counted in one interval into the average. Only the
+	 * sampling thread calls this.
+	 *
+	 * @param count
+	 *            the number of events in the interval
+	 * @param elapsedSeconds
+	 *            the length of the interval in seconds, greater than zero
+	 */
+	void update(long count, double elapsedSeconds) {
+		final double instantRate = count / elapsedSeconds;
+		if (initialized) {
+			final double alpha = 1 - Math.exp(-elapsedSeconds / tau);
+			rate += alpha * (instantRate - rate);
+		} else {
+			rate = instantRate;
+			initialized = true;
+		}
+	}
+
+	/**
+	 * @return the rate in events per second
+	 */
+	double getRate() {
+		return rate;
+	}
+}
@@ -0,0 +1,16 @@
+package org.metrics.core;
+
+/**
+ * A metric whose value is read when it is reported, such as the depth of a
+ * queue or the size of a pool. Only the reporting tick calls
+ * {@link #getValue()}, once per tick however many reporters there are.
+ * Numeric and boolean values are reported, other values are left out.
+ *
+ * @param <T>
+ *            the type of the value
+ */
+@FunctionalInterface
+public interface Gauge<T> extends Metric {
+
+	T getValue();
+}
@@ -0,0 +1,135 @@
+package org.metrics.core;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Reservoir} backed by an HdrHistogram {@link Recorder}. Recording
+ * is wait-free and constant time, memory is bounded by the trackable range
+ * and precision, and {@link #getSnapshot()} reports the percentiles of the
+ * last complete reporting interval only.
+ *
+ * <p>
+ * Values above the highest trackable value are clamped to it.
+ */
+public class HdrReservoir implements Reservoir {
+
+	private static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = TimeUnit.MINUTES.toMillis(10);
+	private static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+
+	private final Recorder recorder;
+	private final long highestTrackableValue;
+
+	/**
+	 * The two most recent interval histograms. The older one is recycled into
+	 * the recorder on the next sample, so a snapshot stays valid for a full
+	 * interval after it has been replaced.
+	 */
+	private Histogram current;
+	private Histogram previous;
+	private volatile Snapshot snapshot;
+
+	public HdrReservoir() {
+		this(DEFAULT_HIGHEST_TRACKABLE_VALUE, DEFAULT_SIGNIFICANT_DIGITS);
+	}
+
+	/**
+	 * @param highestTrackableValue
+	 *            the highest value to be tracked, larger values are clamped
+	 * @param numberOfSignificantValueDigits
+	 *            the precision to maintain, between 0 and 5
+	 */
+	public HdrReservoir(long highestTrackableValue, int numberOfSignificantValueDigits) {
+		this.recorder = new Recorder(highestTrackableValue, numberOfSignificantValueDigits);
+		this.highestTrackableValue = highestTrackableValue;
+		this.current = recorder.getIntervalHistogram();
+		this.snapshot = new HdrSnapshot(current);
+	}
+
+	@Override
+	public void update(long value) {
+		recorder.recordValue(value < highestTrackableValue ? value : highestTrackableValue);
+	}
+
+	@Override
+	public synchronized void sample() {
+		Histogram recycled = previous;
+		previous = current;
+		current = recorder.getIntervalHistogram(recycled);
+		snapshot = new HdrSnapshot(current);
+	}
+
+	@Override
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	private static class HdrSnapshot extends Snapshot {
+		private final Histogram histogram;
+
+		private HdrSnapshot(Histogram histogram) {
+			this.histogram = histogram;
+		}
+
+		@Override
+		public double getValue(double quantile) {
+			return histogram.getValueAtPercentile(quantile * 100);
+		}
+
+		@Override
+		public long[] getValues() {
+			long[] values = new long[size()];
+			int i = 0;
+			for (HistogramIterationValue value : histogram.recordedValues()) {
+				long v = histogram.highestEquivalentValue(value.getValueIteratedTo());
+				for (long n = value.getCountAtValueIteratedTo(); n > 0 && i < values.length; n--) {
+					values[i++] = v;
+				}
+			}
+			return values;
+		}
+
+		@Override
+		public int size() {
+			return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+		}
+
+		@Override
+		public long getMax() {
+			return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+		}
+
+		@Override
+		public double getMean() {
+			return histogram.getMean();
+		}
+
+		@Override
+		public long getMin() {
+			return histogram.getMinValue();
+		}
+
+		@Override
+		public double getStdDev() {
+			return histogram.getStdDeviation();
+		}
+
+		@Override
+		public void dump(OutputStream output) {
+			try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+				for (long value : getValues()) {
+					out.printf("%d%n", value);
+				}
+			}
+		}
+	}
+}
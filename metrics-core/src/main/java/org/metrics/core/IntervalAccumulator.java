@@ -0,0 +1,116 @@
+package org.metrics.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count, sum and extremes of the values recorded in an interval, double
+ * buffered so an interval is closed as a whole. Writers record into the
+ * active phase, {@link #flip()} makes the other phase active, waits for the
+ * writers still in the old one and drains it. A value is never split between
+ * intervals, nor recorded after its interval was read.
+ *
+ * <p>
+ * Writers enter and leave a phase through striped counters, in the manner
+ * of a writer reader phaser but without a shared epoch, so recording stays
+ * free of contended writes. A writer that entered a phase which is no longer
+ * active leaves it and retries on the new one.
+ */
+final class IntervalAccumulator {
+
+	private volatile Phase active = new Phase();
+	private Phase inactive = new Phase();
+
+	/**
+	 * Records {@code value}, and adds it to {@code reservoir} within the same
+	 * phase. The reservoir keeps its own intervals, see {@link #flip(Reservoir)}.
+	 */
+	void record(long value, Reservoir reservoir) {
+		Phase phase = active;
+		phase.entered.increment();
+		while (phase != active) {
+			phase.left.increment();
+			phase = active;
+			phase.entered.increment();
+		}
+		try {
+			phase.count.increment();
+			phase.sum.add(value);
+			phase.updateMax(value);
+			phase.updateMin(value);
+			reservoir.update(value);
+		} finally {
+			phase.left.increment();
+		}
+	}
+
+	/**
+	 * Closes the current interval, and the interval of {@code reservoir} right
+	 * after the switch. Writers still in the closed phase then update the
+	 * next interval of the reservoir, and writers of the new phase that beat
+	 * the reservoir sample update the closed one, so the two may differ by
+	 * the values recorded while the interval closes. Called by one thread at
+	 * a time.
+	 *
+	 * @return the closed phase, to be read before the next flip
+	 */
+	Phase flip(Reservoir reservoir) {
+		Phase closed = active;
+		active = inactive;
+		inactive = closed;
+		// at the switch rather than after the wait, which can be long
+		reservoir.sample();
+		// left first: a writer counted in left is counted in entered too
+		while (closed.left.sum() != closed.entered.sum()) {
+			Thread.yield();
+		}
+		closed.drain();
+		return closed;
+	}
+
+	static final class Phase {
+		/** Never reset, a late writer may still count itself in and out. */
+		private final LongAdder entered = new LongAdder();
+		private final LongAdder left = new LongAdder();
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+		private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+		long drainedCount;
+		long drainedSum;
+		long drainedMax;
+		long drainedMin;
+
+		/**
+		 * Only writes when {@code value} raises the maximum, so steady-state
+		 * updates are plain volatile reads and never retry.
+		 */
+		private void updateMax(long value) {
+			long current;
+			while (value > (current = max.get())) {
+				if (max.compareAndSet(current, value)) {
+					return;
+				}
+			}
+		}
+
+		private void updateMin(long value) {
+			long current;
+			while (value < (current = min.get())) {
+				if (min.compareAndSet(current, value)) {
+					return;
+				}
+			}
+		}
+
+		private void drain() {
+			drainedCount = count.sumThenReset();
+			drainedSum = sum.sumThenReset();
+			long max = this.max.getAndSet(Long.MIN_VALUE);
+			long min = this.min.getAndSet(Long.MAX_VALUE);
+			drainedMax = drainedCount == 0 ? 0 : max;
+			drainedMin = drainedCount == 0 ? 0 : min;
+		}
+	}
+}
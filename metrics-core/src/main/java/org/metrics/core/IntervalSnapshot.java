@@ -0,0 +1,123 @@
+package org.metrics.core;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * The values of a {@link Meter} or {@link Timer} as of its last sample, all
+ * read at once. Reporters format a snapshot rather than the live getters, so
+ * a report never mixes two intervals. The one exception is the
+ * distribution of a timer, which may be off by the few durations recorded
+ * while the interval closed, see {@link Timer}.
+ */
+public final class IntervalSnapshot {
+
+	static final IntervalSnapshot EMPTY = new IntervalSnapshot(0, 0, 0, 0, 0, 0, 0);
+
+	private final long count;
+	private final long intervalCount;
+	private final double rate;
+	private final double meanRate;
+	private final double oneMinuteRate;
+	private final double fiveMinuteRate;
+	private final double fifteenMinuteRate;
+	private final long sum;
+	private final long max;
+	private final long min;
+	private final Snapshot distribution;
+
+	IntervalSnapshot(long count, long intervalCount, double rate, double meanRate,
+			double oneMinuteRate, double fiveMinuteRate, double fifteenMinuteRate) {
+		this(count, intervalCount, rate, meanRate, oneMinuteRate, fiveMinuteRate, fifteenMinuteRate,
+				0, 0, 0, null);
+	}
+
+	/**
+	 * The snapshot of a timer, the rates of {@code meter} with the durations
+	 * of the same interval.
+	 */
+	IntervalSnapshot(IntervalSnapshot meter, long sum, long max, long min, Snapshot distribution) {
+		this(meter.count, meter.intervalCount, meter.rate, meter.meanRate, meter.oneMinuteRate,
+				meter.fiveMinuteRate, meter.fifteenMinuteRate, sum, max, min, distribution);
+	}
+
+	private IntervalSnapshot(long count, long intervalCount, double rate, double meanRate,
+			double oneMinuteRate, double fiveMinuteRate, double fifteenMinuteRate, long sum, long max,
+			long min, Snapshot distribution) {
+		this.count = count;
+		this.intervalCount = intervalCount;
+		this.rate = rate;
+		this.meanRate = meanRate;
+		this.oneMinuteRate = oneMinuteRate;
+		this.fiveMinuteRate = fiveMinuteRate;
+		this.fifteenMinuteRate = fifteenMinuteRate;
+		this.sum = sum;
+		this.max = max;
+		this.min = min;
+		this.distribution = distribution;
+	}
+
+	/**
+	 * @return the events up to the end of the interval
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the events in the interval
+	 */
+	public long getIntervalCount() {
+		return intervalCount;
+	}
+
+	/**
+	 * @return the events per second in the interval
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	public double getMeanRate() {
+		return meanRate;
+	}
+
+	public double getOneMinuteRate() {
+		return oneMinuteRate;
+	}
+
+	public double getFiveMinuteRate() {
+		return fiveMinuteRate;
+	}
+
+	public double getFifteenMinuteRate() {
+		return fifteenMinuteRate;
+	}
+
+	/**
+	 * @return the sum of the durations in the interval, in milliseconds, 0
+	 *         for a meter
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public double getAvg() {
+		return intervalCount == 0 ? 0.0 : sum / (double) intervalCount;
+	}
+
+	/**
+	 * @return the percentiles of the timer's reservoir, {@code null} for a
+	 *         meter
+	 */
+	public Snapshot getDistribution() {
+		return distribution;
+	}
+}
@@ -1,57 +1,131 @@
 package org.metrics.core;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 
 import com.codahale.metrics.Clock;
 
+/**
+ * A meter counting events into a single striped counter. Everything derived
+ * from the count, the interval rate and the moving averages, is computed in
+ * {@link #sample()} on the reporter thread, so {@link #mark()} is one add.
+ * Each sample is published as one {@link IntervalSnapshot}.
+ */
 public class Meter implements Metric {
 	
+	private static final double SECONDS_PER_NANO = 1.0 / TimeUnit.SECONDS.toNanos(1);
+	
 	private final LongAdder counter = new LongAdder();
-	private final AtomicLong lastCounter = new AtomicLong(0);
-	private long rate = 0;
+	private final Ewma m1Rate = new Ewma(1);
+	private final Ewma m5Rate = new Ewma(5);
+	private final Ewma m15Rate = new Ewma(15);
+	private final Clock clock;
+	private final long startTime;
 	
-	private com.codahale.metrics.Meter meter;
+	private long lastCount = 0;
+	private long lastTick;
+	private volatile IntervalSnapshot snapshot = IntervalSnapshot.EMPTY;
+	/** Consecutive samples without events. */
+	private int idleSamples;
 
-	protected Meter() {
+	public Meter() {
 		this(Clock.defaultClock());
 	}
 
-	protected Meter(Clock clock) {
-		this.meter=new com.codahale.metrics.Meter(clock);
+	public Meter(Clock clock) {
+		this.clock = clock;
+		this.startTime = clock.getTick();
+		this.lastTick = startTime;
 	}
 
 	public void mark() {
-		counter.add(1);
-		meter.mark(1);
+		counter.increment();
+	}
+	
+	public void mark(long n) {
+		counter.add(n);
 	}
 	
-	public void sample() {
-		long currentCount = counter.longValue();
-		rate = currentCount - lastCounter.get();
-		lastCounter.set(currentCount);
+	/**
+	 * Closes the interval since the last sample.
+	 *
+	 * @return the new snapshot, also returned by {@link #getIntervalSnapshot()}
+	 */
+	public synchronized IntervalSnapshot sample() {
+		final long tick = clock.getTick();
+		final long currentCount = counter.sum();
+		final long count = currentCount - lastCount;
+		final double elapsed = (tick - lastTick) * SECONDS_PER_NANO;
+		lastCount = currentCount;
+		lastTick = tick;
+		if (count != 0) {
+			idleSamples = 0;
+		} else if (idleSamples < Integer.MAX_VALUE) {
+			idleSamples++;
+		}
+		if (elapsed > 0) {
+			m1Rate.update(count, elapsed);
+			m5Rate.update(count, elapsed);
+			m15Rate.update(count, elapsed);
+		}
+		final double totalElapsed = (tick - startTime) * SECONDS_PER_NANO;
+		snapshot = new IntervalSnapshot(currentCount, count, elapsed > 0 ? count / elapsed : 0,
+				totalElapsed > 0 ? currentCount / totalElapsed : 0, m1Rate.getRate(), m5Rate.getRate(),
+				m15Rate.getRate());
+		return snapshot;
+	}
+
+	/**
+	 * @return the values as of the last sample
+	 */
+	public IntervalSnapshot getIntervalSnapshot() {
+		return snapshot;
 	}
 
-	public long getRate() {
-		return rate;
+	/**
+	 * @return the events per second in the last interval, whatever its
+	 *         length
+	 */
+	public double getRate() {
+		return snapshot.getRate();
 	}
+
+	/**
+	 * @return the events in the last interval
+	 */
+	public long getIntervalCount() {
+		return snapshot.getIntervalCount();
+	}
+
+	/**
+	 * @return how many samples in a row saw no events, 0 if the last one did
+	 */
+	synchronized int idleSamples() {
+		return idleSamples;
+	}
+	
 	public long getCount() {
-		return meter.getCount();
+		return counter.sum();
 	}
 	
 	public double getMeanRate() {
-		return meter.getMeanRate();
+		final long count = getCount();
+		if (count == 0) {
+			return 0.0;
+		}
+		final double elapsed = (clock.getTick() - startTime) * SECONDS_PER_NANO;
+		return elapsed > 0 ? count / elapsed : 0.0;
 	}
 	
 	public double getFifteenMinuteRate() {
-		return meter.getOneMinuteRate();
+		return m15Rate.getRate();
 	}
 
 	public double getFiveMinuteRate() {
-		return meter.getFiveMinuteRate();
+		return m5Rate.getRate();
 	}
 	
 	public double getOneMinuteRate() {
-		return meter.getFifteenMinuteRate();
+		return m1Rate.getRate();
 	}
 }
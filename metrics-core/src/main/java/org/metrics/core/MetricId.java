@@ -0,0 +1,290 @@
+package org.metrics.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The identity of a metric: a name plus a set of tags sorted by key.
+ *
+ * <p>
+ * Ids are interned, so equal ids are usually the same instance and compare
+ * by reference, and the hash code is computed once. Resolve an id once, e.g.
+ * into a {@code static final} field, and look metrics up with it; the
+ * lookup then allocates nothing. {@link #of(String)} without tags is cached
+ * per name and allocation-free after the first call.
+ *
+ * <p>
+ * Tagged ids are interned weakly: once neither a registry nor a caller holds
+ * an id, it is collected and its interning entry dropped, so tags of high
+ * cardinality cost memory only while their metrics are registered. Untagged
+ * ids stay cached for the life of the JVM, one per distinct name.
+ */
+public final class MetricId implements Comparable<MetricId> {
+
+	private static final String[] NO_TAGS = new String[0];
+	private static final ConcurrentMap<Key, IdReference> INTERNED = new ConcurrentHashMap<Key, IdReference>(256);
+	private static final ReferenceQueue<MetricId> COLLECTED = new ReferenceQueue<MetricId>();
+	private static final ConcurrentMap<String, MetricId> UNTAGGED = new ConcurrentHashMap<String, MetricId>(256);
+
+	private final String name;
+	/** Alternating keys and values, sorted by key. */
+	private final String[] tags;
+	private final int hashCode;
+
+	private MetricId(String name, String[] tags) {
+		this.name = name;
+		this.tags = tags;
+		this.hashCode = 31 * name.hashCode() + Arrays.hashCode(tags);
+	}
+
+	/**
+	 * Returns the id of an untagged metric.
+	 *
+	 * @param name
+	 *            the metric name
+	 * @return the interned id
+	 */
+	public static MetricId of(String name) {
+		MetricId id = UNTAGGED.get(name);
+		if (id == null) {
+			checkName(name);
+			id = UNTAGGED.computeIfAbsent(name, key -> intern(new MetricId(key, NO_TAGS)));
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a tagged metric.
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param tags
+	 *            alternating tag keys and values, e.g.
+	 *            {@code "status", "200", "method", "GET"}
+	 * @return the interned id
+	 */
+	public static MetricId of(String name, String... tags) {
+		if (tags.length == 0) {
+			return of(name);
+		}
+		checkName(name);
+		return intern(new MetricId(name, normalize(NO_TAGS, tags)));
+	}
+
+	/**
+	 * Returns an id with the same name and these tags added, replacing
+	 * existing tags with the same keys.
+	 *
+	 * @param tags
+	 *            alternating tag keys and values
+	 * @return the interned id
+	 */
+	public MetricId tagged(String... tags) {
+		if (tags.length == 0) {
+			return this;
+		}
+		return intern(new MetricId(name, normalize(this.tags, tags)));
+	}
+
+	private static MetricId intern(MetricId id) {
+		expunge();
+		Key key = new Key(id.name, id.tags, id.hashCode);
+		for (;;) {
+			IdReference reference = INTERNED.get(key);
+			if (reference == null) {
+				if (INTERNED.putIfAbsent(key, new IdReference(id, key)) == null) {
+					return id;
+				}
+				continue;
+			}
+			MetricId existing = reference.get();
+			if (existing != null) {
+				return existing;
+			}
+			// collected but not expunged yet
+			if (INTERNED.replace(key, reference, new IdReference(id, key))) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Drops the entries of collected ids.
+	 */
+	private static void expunge() {
+		Reference<? extends MetricId> collected;
+		while ((collected = COLLECTED.poll()) != null) {
+			IdReference reference = (IdReference) collected;
+			INTERNED.remove(reference.key, reference);
+		}
+	}
+
+	/**
+	 * @return the number of tagged ids interned, including collected ones
+	 *         not dropped yet
+	 */
+	static int internedCount() {
+		expunge();
+		return INTERNED.size();
+	}
+
+	private static void checkName(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("Metric name can not be null.");
+		}
+	}
+
+	/**
+	 * Merges {@code added} into the sorted pairs of {@code base} with an
+	 * insertion sort, which beats anything fancier for a handful of tags.
+	 */
+	private static String[] normalize(String[] base, String[] added) {
+		if (added.length % 2 != 0) {
+			throw new IllegalArgumentException("Tags must be key/value pairs: " + Arrays.toString(added));
+		}
+		String[] result = Arrays.copyOf(base, base.length + added.length);
+		int size = base.length;
+		for (int i = 0; i < added.length; i += 2) {
+			String key = added[i];
+			String value = added[i + 1];
+			if (key == null || value == null) {
+				throw new IllegalArgumentException("Tag keys and values can not be null: " + Arrays.toString(added));
+			}
+			int pos = 0;
+			while (pos < size && result[pos].compareTo(key) < 0) {
+				pos += 2;
+			}
+			if (pos < size && result[pos].equals(key)) {
+				result[pos + 1] = value;
+				continue;
+			}
+			System.arraycopy(result, pos, result, pos + 2, size - pos);
+			result[pos] = key;
+			result[pos + 1] = value;
+			size += 2;
+		}
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getTagCount() {
+		return tags.length / 2;
+	}
+
+	/**
+	 * @param index
+	 *            the tag index, from 0 to {@link #getTagCount()} exclusive
+	 * @return the key of the tag, tags are sorted by key
+	 */
+	public String getTagKey(int index) {
+		return tags[index * 2];
+	}
+
+	public String getTagValue(int index) {
+		return tags[index * 2 + 1];
+	}
+
+	/**
+	 * @return the tags as an unmodifiable map in key order
+	 */
+	public Map<String, String> getTags() {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (int i = 0; i < tags.length; i += 2) {
+			result.put(tags[i], tags[i + 1]);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof MetricId)) {
+			return false;
+		}
+		MetricId other = (MetricId) obj;
+		return hashCode == other.hashCode && name.equals(other.name) && Arrays.equals(tags, other.tags);
+	}
+
+	@Override
+	public int compareTo(MetricId other) {
+		int result = name.compareTo(other.name);
+		for (int i = 0; result == 0 && i < Math.min(tags.length, other.tags.length); i++) {
+			result = tags[i].compareTo(other.tags[i]);
+		}
+		return result != 0 ? result : Integer.compare(tags.length, other.tags.length);
+	}
+
+	@Override
+	public String toString() {
+		if (tags.length == 0) {
+			return name;
+		}
+		StringBuilder builder = new StringBuilder(name).append('{');
+		for (int i = 0; i < tags.length; i += 2) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(tags[i]).append('=').append(tags[i + 1]);
+		}
+		return builder.append('}').toString();
+	}
+
+	/**
+	 * The content of an id, keying the interned ids without keeping them
+	 * reachable.
+	 */
+	private static final class Key {
+		private final String name;
+		private final String[] tags;
+		private final int hashCode;
+
+		Key(String name, String[] tags, int hashCode) {
+			this.name = name;
+			this.tags = tags;
+			this.hashCode = hashCode;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && name.equals(other.name) && Arrays.equals(tags, other.tags);
+		}
+	}
+
+	private static final class IdReference extends WeakReference<MetricId> {
+		private final Key key;
+
+		IdReference(MetricId id, Key key) {
+			super(id, COLLECTED);
+			this.key = key;
+		}
+	}
+}
@@ -1,51 +1,259 @@
 package org.metrics.core;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import com.codahale.metrics.Clock;
 
+/**
+ * A registry of metrics keyed by {@link MetricId}. All metric types share one
+ * map, so an id identifies exactly one metric. The {@code String} overloads
+ * are shorthands for untagged ids.
+ *
+ * <p>
+ * The metrics returned by {@link #meter(MetricId)} and
+ * {@link #timber(MetricId)} are handles: resolve them once and keep them in a
+ * field, the lookup is only needed to bind a call site to its metric.
+ */
 public class MetricRegistry {
-	
-	private ConcurrentMap<String, Meter> meterMap=new ConcurrentHashMap<String, Meter>(64);
-	private ConcurrentMap<String, Timer> timerMap=new ConcurrentHashMap<String, Timer>(64);
-	private Clock clock;
-	
+
+	private final ConcurrentMap<MetricId, Metric> metrics=new ConcurrentHashMap<MetricId, Metric>(64);
+	private final Clock clock;
+	private final Function<MetricId, Meter> newMeter;
+	private final Function<MetricId, Timer> newTimer;
+	private final Function<MetricId, Counter> newCounter;
+	/** Bumped after every addition and removal, so the type maps know when to rebuild. */
+	private final AtomicInteger version=new AtomicInteger();
+	private volatile TypeMap<Meter> meters=new TypeMap<Meter>(-1, null);
+	private volatile TypeMap<Timer> timers=new TypeMap<Timer>(-1, null);
+	private volatile TypeMap<Counter> counters=new TypeMap<Counter>(-1, null);
+	@SuppressWarnings("rawtypes")
+	private volatile TypeMap<Gauge> gauges=new TypeMap<Gauge>(-1, null);
+
 	public MetricRegistry() {
 		this(Clock.defaultClock());
 	}
-	
+
 	public MetricRegistry(Clock clock) {
 		this.clock=clock;
+		this.newMeter=id -> new Meter(clock);
+		this.newTimer=id -> new Timer(clock);
+		this.newCounter=id -> new Counter();
 	}
-	
-	public Meter meter(String name) {
-		if(meterMap.containsKey(name)) {
-			return meterMap.get(name);
+
+	/**
+	 * Registers {@code metric} under {@code id}.
+	 *
+	 * @param id
+	 *            the id of the metric
+	 * @param metric
+	 *            the metric
+	 * @return {@code metric}
+	 * @throws IllegalArgumentException
+	 *             if the id is already registered
+	 */
+	public <T extends Metric> T register(MetricId id, T metric) {
+		if(metric==null) {
+			throw new IllegalArgumentException("Metric can not be null.");
+		}
+		Metric existing=metrics.putIfAbsent(id, metric);
+		if(existing!=null) {
+			throw new IllegalArgumentException("A metric named " + id + " already exists.");
 		}
-		Meter meter=new Meter();
-		meterMap.put(name, meter);
-		return meter;
+		version.incrementAndGet();
+		return metric;
+	}
+
+	public <T extends Metric> T register(String name, T metric) {
+		return register(MetricId.of(name), metric);
+	}
+
+	/**
+	 * Removes the metric with the given id.
+	 *
+	 * @param id
+	 *            the id of the metric
+	 * @return whether or not the metric was removed
+	 */
+	public boolean remove(MetricId id) {
+		if(metrics.remove(id)==null) {
+			return false;
+		}
+		version.incrementAndGet();
+		return true;
+	}
+
+	public boolean remove(String name) {
+		return remove(MetricId.of(name));
+	}
+
+	public Meter meter(MetricId id) {
+		return getOrAdd(id, Meter.class, newMeter);
 	}
-	
+
+	public Meter meter(String name) {
+		return meter(MetricId.of(name));
+	}
+
+	public Timer timber(MetricId id) {
+		return getOrAdd(id, Timer.class, newTimer);
+	}
+
 	public Timer timber(String name) {
-		if(timerMap.containsKey(name)) {
-			return timerMap.get(name);
+		return timber(MetricId.of(name));
+	}
+
+	/**
+	 * Returns the timer registered under {@code id}, creating it with a
+	 * reservoir from {@code reservoir} if there is none, e.g.
+	 * {@code registry.timber(id, HdrReservoir::new)} for per-interval
+	 * percentiles.
+	 */
+	public Timer timber(MetricId id, Supplier<Reservoir> reservoir) {
+		return getOrAdd(id, Timer.class, key -> new Timer(clock, reservoir.get()));
+	}
+
+	public Timer timber(String name, Supplier<Reservoir> reservoir) {
+		return timber(MetricId.of(name), reservoir);
+	}
+
+	public Counter counter(MetricId id) {
+		return getOrAdd(id, Counter.class, newCounter);
+	}
+
+	public Counter counter(String name) {
+		return counter(MetricId.of(name));
+	}
+
+	/**
+	 * Returns the gauge registered under {@code id}, registering
+	 * {@code gauge} if there is none, e.g.
+	 * {@code registry.gauge(id, queue::size)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Gauge<T> gauge(MetricId id, Gauge<T> gauge) {
+		return getOrAdd(id, Gauge.class, key -> gauge);
+	}
+
+	public <T> Gauge<T> gauge(String name, Gauge<T> gauge) {
+		return gauge(MetricId.of(name), gauge);
+	}
+
+	/**
+	 * The plain {@code get} is a lock-free read that hits for every id but
+	 * the first, using the id's precomputed hash. Only a miss goes through
+	 * {@code computeIfAbsent}, which creates the metric exactly once even
+	 * when callers race. Only the caller that created it invalidates the type
+	 * maps, after the metric is in the map.
+	 */
+	private <T extends Metric> T getOrAdd(MetricId id, Class<T> type, Function<MetricId, ? extends T> factory) {
+		Metric metric=metrics.get(id);
+		if(metric==null) {
+			boolean[] created=new boolean[1];
+			metric=metrics.computeIfAbsent(id, key -> {
+				created[0]=true;
+				return factory.apply(key);
+			});
+			if(created[0]) {
+				version.incrementAndGet();
+			}
+		}
+		return cast(id, type, metric);
+	}
+
+	private <T extends Metric> T cast(MetricId id, Class<T> type, Metric metric) {
+		if(type.isInstance(metric)) {
+			return type.cast(metric);
 		}
-		Timer timer=new Timer(clock);
-		timerMap.put(name, timer);
-		return timer;
+		throw new IllegalArgumentException(id + " is already used for a different type of metric.");
 	}
-	
+
 	public Clock getClock() {
 		return clock;
 	}
 
-	public ConcurrentMap<String, Meter> meterMap() {
-		return meterMap;
+	/**
+	 * @return an unmodifiable view of all registered metrics
+	 */
+	public Map<MetricId, Metric> getMetrics() {
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * Visits every metric without copying the map, for sampling.
+	 */
+	void forEachMetric(BiConsumer<MetricId, Metric> action) {
+		metrics.forEach(action);
 	}
-	
-	public ConcurrentMap<String, Timer> timerMap() {
-		return timerMap;
+
+	/**
+	 * The maps below are sorted snapshots, rebuilt only after metrics were
+	 * added or removed, so a reporter calling them every tick gets the same
+	 * map back without copying the registry.
+	 */
+	public SortedMap<MetricId, Meter> meterMap() {
+		TypeMap<Meter> map=meters;
+		if(map.version!=version.get()) {
+			meters=map=build(Meter.class);
+		}
+		return map.metrics;
+	}
+
+	public SortedMap<MetricId, Timer> timerMap() {
+		TypeMap<Timer> map=timers;
+		if(map.version!=version.get()) {
+			timers=map=build(Timer.class);
+		}
+		return map.metrics;
+	}
+
+	public SortedMap<MetricId, Counter> counterMap() {
+		TypeMap<Counter> map=counters;
+		if(map.version!=version.get()) {
+			counters=map=build(Counter.class);
+		}
+		return map.metrics;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SortedMap<MetricId, Gauge<?>> gaugeMap() {
+		TypeMap<Gauge> map=gauges;
+		if(map.version!=version.get()) {
+			gauges=map=build(Gauge.class);
+		}
+		return (SortedMap) map.metrics;
+	}
+
+	/**
+	 * Reads the version before the metrics, so a metric added meanwhile
+	 * leaves the map out of date and rebuilt by the next call.
+	 */
+	private <T extends Metric> TypeMap<T> build(Class<T> type) {
+		int current=version.get();
+		SortedMap<MetricId, T> result=new TreeMap<MetricId, T>();
+		for(Map.Entry<MetricId, Metric> entry:metrics.entrySet()) {
+			if(type.isInstance(entry.getValue())) {
+				result.put(entry.getKey(), type.cast(entry.getValue()));
+			}
+		}
+		return new TypeMap<T>(current, Collections.unmodifiableSortedMap(result));
+	}
+
+	private static final class TypeMap<T extends Metric> {
+		private final int version;
+		private final SortedMap<MetricId, T> metrics;
+
+		TypeMap(int version, SortedMap<MetricId, T> metrics) {
+			this.version=version;
+			this.metrics=metrics;
+		}
 	}
 }
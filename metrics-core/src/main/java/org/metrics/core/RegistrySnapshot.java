@@ -0,0 +1,364 @@
+package org.metrics.core;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * The sampled values of every metric of a registry at one tick, in flat
+ * arrays with one entry per metric, in no particular order. Reporters
+ * format a snapshot instead of the live metrics, so every reporter of a tick
+ * writes the same values and formatting never touches a metric that
+ * application threads are updating.
+ *
+ * <p>
+ * A {@link ReportScheduler} reuses its snapshots once every reporter is done
+ * with them, so the arrays are only allocated while the registry grows. A
+ * snapshot must not be kept after {@link ScheduledReporter#report(RegistrySnapshot)}
+ * returns.
+ */
+public final class RegistrySnapshot {
+
+	public static final int P75 = 0;
+	public static final int P95 = 1;
+	public static final int P98 = 2;
+	public static final int P99 = 3;
+	public static final int P999 = 4;
+	private static final double[] QUANTILES = { 0.75, 0.95, 0.98, 0.99, 0.999 };
+	private static final Logger LOG = LoggerFactory.getLogger(RegistrySnapshot.class);
+
+	private final Section meters = new Section(Section.RATES);
+	private final Section timers = new Section(Section.RATES | Section.DURATIONS);
+	private final Section counters = new Section(0);
+	private final Section gauges = new Section(Section.VALUES);
+	private long timestamp;
+	/** Reporters still reading this snapshot, see {@link ReportScheduler}. */
+	final AtomicInteger readers = new AtomicInteger();
+
+	RegistrySnapshot() {
+	}
+
+	/**
+	 * A snapshot of the last samples of the given metrics, which are not
+	 * sampled again. For reporters handed maps of metrics.
+	 */
+	public static RegistrySnapshot of(long timestamp, Map<MetricId, Meter> meterMap,
+			Map<MetricId, Timer> timerMap) {
+		RegistrySnapshot snapshot = new RegistrySnapshot();
+		snapshot.timestamp = timestamp;
+		for (Map.Entry<MetricId, Meter> entry : meterMap.entrySet()) {
+			snapshot.meters.add(entry.getKey(), entry.getValue(), entry.getValue().getIntervalSnapshot(), 0);
+		}
+		for (Map.Entry<MetricId, Timer> entry : timerMap.entrySet()) {
+			snapshot.timers.add(entry.getKey(), entry.getValue(), entry.getValue().getIntervalSnapshot(), 0);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Samples every metric of {@code registry} into this snapshot, replacing
+	 * its previous content. Gauges are evaluated here.
+	 */
+	RegistrySnapshot fill(long timestamp, MetricRegistry registry) {
+		this.timestamp = timestamp;
+		meters.clear();
+		timers.clear();
+		counters.clear();
+		gauges.clear();
+		registry.forEachMetric((id, metric) -> {
+			if (metric instanceof Meter) {
+				Meter meter = (Meter) metric;
+				meters.add(id, meter, meter.sample(), meter.idleSamples());
+			} else if (metric instanceof Timer) {
+				Timer timer = (Timer) metric;
+				timers.add(id, timer, timer.sample(), timer.idleSamples());
+			} else if (metric instanceof Counter) {
+				counters.addCount(id, metric, ((Counter) metric).getCount());
+			} else if (metric instanceof Gauge) {
+				double value = value(id, (Gauge<?>) metric);
+				if (!Double.isNaN(value)) {
+					gauges.addValue(id, metric, value);
+				}
+			}
+		});
+		meters.forget();
+		timers.forget();
+		counters.forget();
+		gauges.forget();
+		return this;
+	}
+
+	/**
+	 * @return the value of a numeric or boolean gauge, NaN for other
+	 *         gauges and gauges that fail
+	 */
+	private static double value(MetricId id, Gauge<?> gauge) {
+		Object value;
+		try {
+			value = gauge.getValue();
+		} catch (RuntimeException e) {
+			LOG.warn("Gauge {} failed, not reporting it.", id, e);
+			return Double.NaN;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value ? 1 : 0;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * @return the end of the interval, in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Section meters() {
+		return meters;
+	}
+
+	public Section timers() {
+		return timers;
+	}
+
+	public Section counters() {
+		return counters;
+	}
+
+	/**
+	 * @return the gauges with a numeric or boolean value, true being 1
+	 */
+	public Section gauges() {
+		return gauges;
+	}
+
+	/**
+	 * The metrics of one type, indexed from 0 to {@link #size()}. Values a
+	 * type does not have are 0: rates and durations of counters and gauges,
+	 * durations and percentiles of meters, counts of gauges.
+	 */
+	public static final class Section {
+		private static final int INITIAL_CAPACITY = 16;
+		private static final int RATES = 1;
+		private static final int DURATIONS = 2;
+		private static final int VALUES = 4;
+
+		private int size;
+		/** The size of the previous fill. */
+		private int filled;
+		private MetricId[] ids = new MetricId[INITIAL_CAPACITY];
+		private Metric[] metrics = new Metric[INITIAL_CAPACITY];
+		private int[] idleSamples = new int[INITIAL_CAPACITY];
+		private long[] counts = new long[INITIAL_CAPACITY];
+		/** The columns below are {@code null} for the types without them. */
+		private long[] intervalCounts;
+		private double[] rates;
+		private double[] meanRates;
+		private double[] oneMinuteRates;
+		private double[] fiveMinuteRates;
+		private double[] fifteenMinuteRates;
+		private long[] sums;
+		private long[] maxes;
+		private long[] mins;
+		/** {@code QUANTILES.length} values per metric. */
+		private double[] percentiles;
+		private double[] values;
+
+		private Section(int columns) {
+			if ((columns & RATES) != 0) {
+				intervalCounts = new long[INITIAL_CAPACITY];
+				rates = new double[INITIAL_CAPACITY];
+				meanRates = new double[INITIAL_CAPACITY];
+				oneMinuteRates = new double[INITIAL_CAPACITY];
+				fiveMinuteRates = new double[INITIAL_CAPACITY];
+				fifteenMinuteRates = new double[INITIAL_CAPACITY];
+			}
+			if ((columns & DURATIONS) != 0) {
+				sums = new long[INITIAL_CAPACITY];
+				maxes = new long[INITIAL_CAPACITY];
+				mins = new long[INITIAL_CAPACITY];
+				percentiles = new double[INITIAL_CAPACITY * QUANTILES.length];
+			}
+			if ((columns & VALUES) != 0) {
+				values = new double[INITIAL_CAPACITY];
+			}
+		}
+
+		private void clear() {
+			filled = size;
+			size = 0;
+		}
+
+		private int entry(MetricId id, Metric metric, int idle) {
+			if (size == ids.length) {
+				grow();
+			}
+			int i = size++;
+			ids[i] = id;
+			metrics[i] = metric;
+			idleSamples[i] = idle;
+			return i;
+		}
+
+		private void addCount(MetricId id, Metric metric, long count) {
+			// the entry may grow the columns, so it is made before reading them
+			int i = entry(id, metric, 0);
+			counts[i] = count;
+		}
+
+		private void addValue(MetricId id, Metric metric, double value) {
+			int i = entry(id, metric, 0);
+			values[i] = value;
+		}
+
+		private void add(MetricId id, Metric metric, IntervalSnapshot interval, int idle) {
+			int i = entry(id, metric, idle);
+			counts[i] = interval.getCount();
+			intervalCounts[i] = interval.getIntervalCount();
+			rates[i] = interval.getRate();
+			meanRates[i] = interval.getMeanRate();
+			oneMinuteRates[i] = interval.getOneMinuteRate();
+			fiveMinuteRates[i] = interval.getFiveMinuteRate();
+			fifteenMinuteRates[i] = interval.getFifteenMinuteRate();
+			if (sums != null) {
+				sums[i] = interval.getSum();
+				maxes[i] = interval.getMax();
+				mins[i] = interval.getMin();
+				Snapshot distribution = interval.getDistribution();
+				for (int q = 0; q < QUANTILES.length; q++) {
+					percentiles[i * QUANTILES.length + q] = distribution == null ? 0
+							: distribution.getValue(QUANTILES[q]);
+				}
+			}
+		}
+
+		private void grow() {
+			int capacity = ids.length * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			metrics = Arrays.copyOf(metrics, capacity);
+			idleSamples = Arrays.copyOf(idleSamples, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			intervalCounts = grow(intervalCounts, capacity);
+			rates = grow(rates, capacity);
+			meanRates = grow(meanRates, capacity);
+			oneMinuteRates = grow(oneMinuteRates, capacity);
+			fiveMinuteRates = grow(fiveMinuteRates, capacity);
+			fifteenMinuteRates = grow(fifteenMinuteRates, capacity);
+			sums = grow(sums, capacity);
+			maxes = grow(maxes, capacity);
+			mins = grow(mins, capacity);
+			percentiles = grow(percentiles, capacity * QUANTILES.length);
+			values = grow(values, capacity);
+		}
+
+		private static long[] grow(long[] column, int capacity) {
+			return column == null ? null : Arrays.copyOf(column, capacity);
+		}
+
+		private static double[] grow(double[] column, int capacity) {
+			return column == null ? null : Arrays.copyOf(column, capacity);
+		}
+
+		/**
+		 * Drops the references to metrics of a larger previous fill, which may
+		 * have been removed from the registry.
+		 */
+		private void forget() {
+			if (filled > size) {
+				Arrays.fill(ids, size, filled, null);
+				Arrays.fill(metrics, size, filled, null);
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public MetricId id(int i) {
+			return ids[i];
+		}
+
+		Metric metric(int i) {
+			return metrics[i];
+		}
+
+		/**
+		 * @return how many samples in a row saw no events, 0 if the last one
+		 *         did and for counters and gauges
+		 */
+		public int idleSamples(int i) {
+			return idleSamples[i];
+		}
+
+		/**
+		 * @return the events up to the tick, or the value of a counter
+		 */
+		public long count(int i) {
+			return counts[i];
+		}
+
+		public long intervalCount(int i) {
+			return intervalCounts == null ? 0 : intervalCounts[i];
+		}
+
+		public double rate(int i) {
+			return rates == null ? 0.0 : rates[i];
+		}
+
+		public double meanRate(int i) {
+			return meanRates == null ? 0.0 : meanRates[i];
+		}
+
+		public double oneMinuteRate(int i) {
+			return oneMinuteRates == null ? 0.0 : oneMinuteRates[i];
+		}
+
+		public double fiveMinuteRate(int i) {
+			return fiveMinuteRates == null ? 0.0 : fiveMinuteRates[i];
+		}
+
+		public double fifteenMinuteRate(int i) {
+			return fifteenMinuteRates == null ? 0.0 : fifteenMinuteRates[i];
+		}
+
+		public long sum(int i) {
+			return sums == null ? 0 : sums[i];
+		}
+
+		public long max(int i) {
+			return maxes == null ? 0 : maxes[i];
+		}
+
+		public long min(int i) {
+			return mins == null ? 0 : mins[i];
+		}
+
+		public double avg(int i) {
+			return sums != null && intervalCounts[i] != 0 ? sums[i] / (double) intervalCounts[i] : 0.0;
+		}
+
+		/**
+		 * @param quantile
+		 *            one of {@link RegistrySnapshot#P75} to
+		 *            {@link RegistrySnapshot#P999}
+		 */
+		public double percentile(int i, int quantile) {
+			return percentiles == null ? 0.0 : percentiles[i * QUANTILES.length + quantile];
+		}
+
+		/**
+		 * @return the value of a gauge
+		 */
+		public double value(int i) {
+			return values == null ? 0.0 : values[i];
+		}
+	}
+}
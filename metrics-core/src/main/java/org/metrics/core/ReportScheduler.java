@@ -0,0 +1,246 @@
+package org.metrics.core;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.metrics.core.ScheduledReporter.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the metrics of a registry once per tick into a
+ * {@link RegistrySnapshot} and hands it to every added
+ * {@link ScheduledReporter}, each on its own task of a shared executor.
+ * Adding a reporter costs no extra sampling, and sampling twice per tick
+ * would split one interval in two.
+ *
+ * <p>
+ * A reporter still busy with the previous interval when a tick comes skips
+ * that tick, so a slow sink neither delays the others nor piles up work.
+ * Snapshots are reused once all their reporters are done, so there are never
+ * more of them than reporters plus one.
+ *
+ * <p>
+ * The executor may be any {@link Executor}, for instance one starting a
+ * virtual thread per task where the runtime has them.
+ */
+public class ReportScheduler implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReportScheduler.class);
+	private static final AtomicInteger SCHEDULER_ID = new AtomicInteger();
+
+	private final MetricRegistry registry;
+	private final ScheduledExecutorService ticker;
+	private final Executor executor;
+	/** Executors created here, shut down on stop. */
+	private final ExecutorService[] owned;
+	private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+	private final Queue<RegistrySnapshot> idle = new ConcurrentLinkedQueue<>();
+	/** Guards the pending tick, which is cancelled on stop. */
+	private final Object scheduling = new Object();
+	private ScheduledFuture<?> nextTick;
+	private boolean stopped;
+
+	/**
+	 * Reports on a cached pool of daemon threads, at most one per reporter.
+	 */
+	public ReportScheduler(MetricRegistry registry) {
+		this(registry, newTicker(), Executors.newCachedThreadPool(
+				new NamedThreadFactory("reporter-" + SCHEDULER_ID.get())), true);
+	}
+
+	/**
+	 * Reports on {@code executor}, which is left running on stop.
+	 */
+	public ReportScheduler(MetricRegistry registry, Executor executor) {
+		this(registry, newTicker(), executor, false);
+	}
+
+	/**
+	 * Ticks on {@code ticker} and reports on {@code executor}, neither of
+	 * which is shut down on stop.
+	 */
+	ReportScheduler(MetricRegistry registry, ScheduledExecutorService ticker, Executor executor) {
+		this.registry = registry;
+		this.ticker = ticker;
+		this.executor = executor;
+		this.owned = new ExecutorService[0];
+	}
+
+	private ReportScheduler(MetricRegistry registry, ScheduledExecutorService ticker, Executor executor,
+			boolean ownsExecutor) {
+		this.registry = registry;
+		this.ticker = ticker;
+		this.executor = executor;
+		this.owned = ownsExecutor ? new ExecutorService[] { ticker, (ExecutorService) executor }
+				: new ExecutorService[] { ticker };
+	}
+
+	private static ScheduledExecutorService newTicker() {
+		return Executors.newSingleThreadScheduledExecutor(
+				new NamedThreadFactory("scheduler-" + SCHEDULER_ID.incrementAndGet()));
+	}
+
+	/**
+	 * Adds {@code reporter} to the next ticks. A reporter added here must not
+	 * be started on its own as well.
+	 */
+	public void add(ScheduledReporter reporter) {
+		sinks.add(new Sink(reporter));
+	}
+
+	public boolean remove(ScheduledReporter reporter) {
+		return sinks.removeIf(sink -> sink.reporter == reporter);
+	}
+
+	/**
+	 * Ticks every {@code period}, on multiples of the period since the epoch
+	 * by the clock of the registry, so reports of many hosts land on the same
+	 * instants. Each interval is timestamped with its scheduled tick rather
+	 * than the time it happens to run, and a tick missed because sampling ran
+	 * long is skipped rather than run late.
+	 */
+	public void start(long period, TimeUnit unit) {
+		long periodMillis = unit.toMillis(period);
+		if (periodMillis < 1) {
+			throw new IllegalArgumentException("period must be at least 1 ms: " + period + " " + unit);
+		}
+		schedule(nextTick(registry.getClock().getTime(), periodMillis), periodMillis);
+	}
+
+	/**
+	 * Schedules one tick at a time, measuring the delay from the wall clock
+	 * each time, so the ticks do not drift from the wall clock the way a
+	 * fixed rate on the monotonic clock does.
+	 */
+	private void schedule(long tick, long periodMillis) {
+		long delay = tick - registry.getClock().getTime();
+		synchronized (scheduling) {
+			if (stopped) {
+				return;
+			}
+			try {
+				nextTick = ticker.schedule(() -> {
+					try {
+						tick(tick);
+					} catch (RuntimeException ex) {
+						LOG.error("RuntimeException thrown while sampling. Exception was suppressed.", ex);
+					}
+					schedule(nextTick(Math.max(tick, registry.getClock().getTime()), periodMillis), periodMillis);
+				}, Math.max(0, delay), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException ex) {
+				LOG.debug("Scheduler is stopped, not scheduling reports.");
+			}
+		}
+	}
+
+	/**
+	 * @return the first multiple of {@code periodMillis} after {@code time}
+	 */
+	static long nextTick(long time, long periodMillis) {
+		return (Math.floorDiv(time, periodMillis) + 1) * periodMillis;
+	}
+
+	/**
+	 * Samples every metric and hands the interval ending at
+	 * {@code timestamp} to the reporters that are not busy.
+	 */
+	void tick(long timestamp) {
+		RegistrySnapshot snapshot = idle.poll();
+		if (snapshot == null) {
+			snapshot = new RegistrySnapshot();
+		}
+		snapshot.fill(timestamp, registry);
+		snapshot.readers.set(1);
+		for (Sink sink : sinks) {
+			if (!sink.busy.compareAndSet(false, true)) {
+				LOG.warn("{} is still reporting the previous interval, skipping the interval ending at {}.",
+						sink.reporter.getClass().getSimpleName(), timestamp);
+				continue;
+			}
+			snapshot.readers.incrementAndGet();
+			RegistrySnapshot reported = snapshot;
+			try {
+				executor.execute(() -> sink.report(reported));
+			} catch (RejectedExecutionException ex) {
+				sink.busy.set(false);
+				release(snapshot);
+				LOG.debug("Executor is shut down, not reporting.");
+			}
+		}
+		release(snapshot);
+	}
+
+	private void release(RegistrySnapshot snapshot) {
+		if (snapshot.readers.decrementAndGet() == 0) {
+			idle.offer(snapshot);
+		}
+	}
+
+	/**
+	 * Stops ticking and shuts down the executors created by this scheduler,
+	 * waiting a few seconds for running reports.
+	 */
+	public void stop() {
+		synchronized (scheduling) {
+			stopped = true;
+			if (nextTick != null) {
+				nextTick.cancel(false);
+			}
+		}
+		for (ExecutorService service : owned) {
+			service.shutdown();
+		}
+		try {
+			for (ExecutorService service : owned) {
+				if (!service.awaitTermination(3, TimeUnit.SECONDS)) {
+					service.shutdownNow();
+					LOG.error("Reporter executor did not terminate.");
+				}
+			}
+		} catch (InterruptedException ie) {
+			for (ExecutorService service : owned) {
+				service.shutdownNow();
+			}
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+
+	private final class Sink {
+		private final ScheduledReporter reporter;
+		private final AtomicBoolean busy = new AtomicBoolean();
+
+		Sink(ScheduledReporter reporter) {
+			this.reporter = reporter;
+		}
+
+		void report(RegistrySnapshot snapshot) {
+			try {
+				reporter.deliver(snapshot);
+			} catch (RuntimeException ex) {
+				LOG.error("RuntimeException thrown from {}#report. Exception was suppressed.",
+						reporter.getClass().getSimpleName(), ex);
+			} finally {
+				busy.set(false);
+				release(snapshot);
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.metrics.core;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A statistically representative reservoir of the durations recorded by a
+ * {@link Timer}.
+ */
+public interface Reservoir {
+
+	/**
+	 * Adds a new recorded value to the reservoir.
+	 *
+	 * @param value
+	 *            a new recorded value
+	 */
+	void update(long value);
+
+	/**
+	 * Called by {@link Timer#sample()} once per reporting interval. Interval
+	 * based reservoirs close the current interval here.
+	 */
+	void sample();
+
+	/**
+	 * Returns a snapshot of the reservoir's values.
+	 *
+	 * @return a snapshot of the reservoir's values
+	 */
+	Snapshot getSnapshot();
+}
@@ -1,6 +1,9 @@
 package org.metrics.core;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -19,12 +22,17 @@ public abstract class ScheduledReporter implements Reporter {
     
     private final MetricRegistry registry;
     private final ScheduledExecutorService executor;
+    private volatile int heartbeatIntervals = 1;
+    /** Ticks when started on its own, guarded by this. */
+    private ReportScheduler scheduler;
+    /** Reused by {@link #report()}, guarded by this. */
+    private RegistrySnapshot snapshot;
   
-    private static class NamedThreadFactory implements ThreadFactory {
+    static class NamedThreadFactory implements ThreadFactory {
         private final AtomicInteger threadNumber = new AtomicInteger(0);
         private final String namePrefix;
 
-        private NamedThreadFactory(String name) {
+        NamedThreadFactory(String name) {
             this.namePrefix = "metrics-" + name + "-thread-";
         }
 
@@ -50,22 +58,41 @@ public abstract class ScheduledReporter implements Reporter {
         this.executor = executor;
     }
 
+    /**
+     * Reports every second.
+     */
     @Override
     public void start() {
-        executor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    report();
-                } catch (RuntimeException ex) {
-                    LOG.error("RuntimeException thrown from {}#report. Exception was suppressed.", ScheduledReporter.this.getClass().getSimpleName(), ex);
-                }
+        start(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reports every {@code period} on a {@link ReportScheduler} of its own,
+     * on multiples of the period since the epoch. To report a registry to
+     * several sinks, add the reporters to one shared scheduler instead, so
+     * the registry is sampled once per tick.
+     */
+    public void start(long period, TimeUnit unit) {
+        ReportScheduler scheduler = new ReportScheduler(registry, executor, Runnable::run);
+        scheduler.add(this);
+        synchronized (this) {
+            if (this.scheduler != null) {
+                throw new IllegalStateException(getClass().getSimpleName() + " is already started.");
             }
-        }, 1, 1, TimeUnit.SECONDS);
+            this.scheduler = scheduler;
+        }
+        scheduler.start(period, unit);
     }
 
     @Override
     public void stop() {
+        ReportScheduler scheduler;
+        synchronized (this) {
+            scheduler = this.scheduler;
+        }
+        if (scheduler != null) {
+            scheduler.stop();
+        }
         executor.shutdown(); 
         try {
             if (!executor.awaitTermination(3, TimeUnit.SECONDS)) {
@@ -86,21 +113,77 @@ public abstract class ScheduledReporter implements Reporter {
         stop();
     }
 
+    /**
+     * Leaves metrics that saw no events in the last interval out of the
+     * reports. An idle metric is still reported in its first idle interval,
+     * so its rate is seen dropping to zero, and then once every
+     * {@code heartbeatIntervals} intervals, so it is seen to exist. 1, the
+     * default, reports every metric in every interval.
+     */
+    protected void skipIdleMetrics(int heartbeatIntervals) {
+        if (heartbeatIntervals < 1) {
+            throw new IllegalArgumentException("heartbeatIntervals must be positive: " + heartbeatIntervals);
+        }
+        this.heartbeatIntervals = heartbeatIntervals;
+    }
+
+    /**
+     * Reports now, timestamped with the current time.
+     */
     public void report() {
         synchronized (this) {
-        	Map<String, Meter> meterMap=registry.meterMap();
-        	Map<String, Timer> timerMap=registry.timerMap();
-        	
-        	for( Meter meter:meterMap.values()) {
-        		meter.sample();
-        	}
-        	for( Timer timer:timerMap.values()) {
-        		timer.sample();
-        	}
-            report(meterMap,timerMap);
+            if (snapshot == null) {
+                snapshot = new RegistrySnapshot();
+            }
+            deliver(snapshot.fill(registry.getClock().getTime(), registry));
+        }
+    }
+
+    void deliver(RegistrySnapshot snapshot) {
+        synchronized (this) {
+            report(snapshot);
+        }
+    }
+
+    /**
+     * Reports the metrics sampled at one tick. Reporters override this to
+     * format the snapshot, leaving out the metrics that
+     * {@link #isReported(int)} rejects. The default hands the reported
+     * metrics to {@link #report(long, Map, Map)}.
+     */
+    public void report(RegistrySnapshot snapshot) {
+        report(snapshot.getTimestamp(), reported(snapshot.meters(), Meter.class),
+                reported(snapshot.timers(), Timer.class));
+    }
+
+    /**
+     * Whether a metric that saw no events in its last {@code idleSamples}
+     * intervals is reported, see {@link #skipIdleMetrics(int)}.
+     */
+    protected boolean isReported(int idleSamples) {
+        int heartbeat = heartbeatIntervals;
+        return heartbeat == 1 || idleSamples <= 1 || idleSamples % heartbeat == 0;
+    }
+
+    /**
+     * Reports the metrics of the interval ending at {@code timestamp}, in
+     * milliseconds since the epoch. Reporters that write timestamps override
+     * this, the default ignores it.
+     */
+    public void report(long timestamp, Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+        report(meterMap, timerMap);
+    }
+
+    private <T extends Metric> Map<MetricId, T> reported(RegistrySnapshot.Section section, Class<T> type) {
+        SortedMap<MetricId, T> reported = new TreeMap<MetricId, T>();
+        for (int i = 0; i < section.size(); i++) {
+            if (isReported(section.idleSamples(i))) {
+                reported.put(section.id(i), type.cast(section.metric(i)));
+            }
         }
+        return Collections.unmodifiableSortedMap(reported);
     }
    
-    public abstract void report(Map<String,Meter> meterMap,Map<String,Timer> timerMap);
+    public abstract void report(Map<MetricId,Meter> meterMap,Map<MetricId,Timer> timerMap);
 
 }
\ No newline at end of file
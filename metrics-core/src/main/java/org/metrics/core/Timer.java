@@ -1,90 +1,177 @@
 package org.metrics.core;
 
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import com.codahale.metrics.Clock;
-import com.codahale.metrics.ExponentiallyDecayingReservoir;
-import com.codahale.metrics.Histogram;
 
+/**
+ * Records durations in milliseconds. Count, sum and extremes of an interval
+ * are kept in an {@link IntervalAccumulator}, so {@link #sample()} closes
+ * them together and publishes one consistent {@link IntervalSnapshot}. The
+ * count and rates only move on samples.
+ *
+ * <p>
+ * The reservoir keeps intervals of its own, closed at the same time but not
+ * atomically with the rest. The percentiles of an interval reservoir such as
+ * {@link HdrReservoir} may therefore miss a few durations recorded while the
+ * interval closes, or hold a few of the next interval, typically one per
+ * writing thread. Each duration still lands in exactly one interval.
+ */
 public class Timer implements Metric {
 
-	private final LongAdder sum;
-	private volatile long max = Long.MIN_VALUE;
-	private volatile long min = Long.MAX_VALUE;
-
-	private Snapshot last;
-	private Snapshot current;
-	private Snapshot diff;
+	private final IntervalAccumulator accumulator = new IntervalAccumulator();
+	private volatile IntervalSnapshot snapshot = IntervalSnapshot.EMPTY;
 
 	private final Clock clock;
-	private final AtomicLong startTime;
+	private final ThreadLocal<long[]> startTime;
 	private final Meter meter;
-	private final Histogram histogram;
+	private final Reservoir reservoir;
 
-	protected Timer() {
+	public Timer() {
 		this(Clock.defaultClock());
 	}
 
-	protected Timer(Clock clock) {
-		this.sum = new LongAdder();
-		this.last = new Snapshot();
-		this.current = new Snapshot();
-		this.diff = new Snapshot();
+	public Timer(Clock clock) {
+		this(clock, new DecayingReservoir());
+	}
+
+	public Timer(Clock clock, Reservoir reservoir) {
 		this.clock = clock;
-		this.startTime = new AtomicLong(clock.getTime());
+		this.startTime = ThreadLocal.withInitial(() -> new long[1]);
 		this.meter = new Meter(clock);
-		this.histogram = new Histogram(new ExponentiallyDecayingReservoir());
+		this.reservoir = reservoir;
+	}
+
+	/**
+	 * Closes the interval since the last sample.
+	 *
+	 * @return the new snapshot, also returned by {@link #getIntervalSnapshot()}
+	 */
+	public synchronized IntervalSnapshot sample() {
+		IntervalAccumulator.Phase interval = accumulator.flip(reservoir);
+		// the meter only counts closed intervals, so its rates match the durations
+		meter.mark(interval.drainedCount);
+		snapshot = new IntervalSnapshot(meter.sample(), interval.drainedSum, interval.drainedMax,
+				interval.drainedMin, reservoir.getSnapshot());
+		return snapshot;
+	}
+
+	/**
+	 * @return the values as of the last sample
+	 */
+	public IntervalSnapshot getIntervalSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns a new {@link Context} holding the current tick. The start time
+	 * lives in the returned context, so concurrent callers never share it.
+	 *
+	 * @return a new {@link Context}
+	 */
+	public Context time() {
+		return new Context(this, clock.getTick());
+	}
+
+	/**
+	 * Times and records the duration of the given {@link Callable}.
+	 *
+	 * @param callable
+	 *            the event to time
+	 * @return the value returned by {@code callable}
+	 * @throws Exception
+	 *             if {@code callable} throws an exception
+	 */
+	public <T> T time(Callable<T> callable) throws Exception {
+		final long startTime = clock.getTick();
+		try {
+			return callable.call();
+		} finally {
+			update(clock.getTick() - startTime, TimeUnit.NANOSECONDS);
+		}
 	}
 
-	public void sample() {
-		meter.sample();
-		current.update(this);
-		diff(current, last, diff);
-		last.update(current);
-		max = Long.MIN_VALUE;
-		min = Long.MAX_VALUE;
+	/**
+	 * Times and records the duration of the given {@link Runnable}.
+	 *
+	 * @param runnable
+	 *            the event to time
+	 */
+	public void time(Runnable runnable) {
+		final long startTime = clock.getTick();
+		try {
+			runnable.run();
+		} finally {
+			update(clock.getTick() - startTime, TimeUnit.NANOSECONDS);
+		}
 	}
 
+	/**
+	 * Starts timing on the calling thread.
+	 *
+	 * @deprecated use {@link #time()}, which keeps the start time on the
+	 *             caller's stack instead of in a thread local.
+	 */
+	@Deprecated
 	public void start() {
-		startTime.set(clock.getTime());
+		startTime.get()[0] = clock.getTick();
 	}
 
+	/**
+	 * Stops the timing started by {@link #start()} on the calling thread.
+	 *
+	 * @deprecated use {@link Context#stop()}.
+	 */
+	@Deprecated
 	public void stop() {
-		update(clock.getTime() - startTime.get());
+		update(clock.getTick() - startTime.get()[0], TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Adds a recorded duration.
+	 *
+	 * @param duration
+	 *            the length of the duration
+	 * @param unit
+	 *            the scale unit of {@code duration}
+	 */
+	public void update(long duration, TimeUnit unit) {
+		update(unit.toMillis(duration));
 	}
 
 	private void update(long duration) {
 		if (duration < 0) {
 			return;
 		}
-		sum.add(duration);
-		meter.mark();
-		histogram.update(duration);
-		synchronized (this) {
-			if (duration > max) {
-				max = duration;
-			}
-			if (duration < min) {
-				min = duration;
-			}
-		}
+		accumulator.record(duration, reservoir);
 	}
 	
-	public long getRate() {
+	public double getRate() {
 		return meter.getRate();
 	}
+
+	public long getIntervalCount() {
+		return meter.getIntervalCount();
+	}
 	
+	/**
+	 * @return the durations recorded up to the last sample
+	 */
 	public long getCount() {
 		return meter.getCount();
 	}
+
+	int idleSamples() {
+		return meter.idleSamples();
+	}
 	
 	public double getMeanRate() {
 		return meter.getMeanRate();
 	}
 	
 	public double getFifteenMinuteRate() {
-		return meter.getOneMinuteRate();
+		return meter.getFifteenMinuteRate();
 	}
 
 	public double getFiveMinuteRate() {
@@ -92,52 +179,62 @@ public class Timer implements Metric {
 	}
 	
 	public double getOneMinuteRate() {
-		return meter.getFifteenMinuteRate();
+		return meter.getOneMinuteRate();
 	}
 
 	public long getMax() {
-		return diff.max;
+		return snapshot.getMax();
 	}
 
 	public long getMin() {
-		return diff.min;
+		return snapshot.getMin();
 	}
 
 	public double getAvg() {
-		if (meter.getRate() == 0) {
-			return 0.0;
-		}
-		return diff.sum / (double) meter.getRate();
+		return snapshot.getAvg();
 	}
 
 	public com.codahale.metrics.Snapshot getSnapshot() {
-		return histogram.getSnapshot();
-	}
-
-	private void diff(Snapshot current, Snapshot last, Snapshot result) {
-		result.sum = current.sum - last.sum;
-		result.max = current.max;
-		result.min = current.min;
+		return reservoir.getSnapshot();
 	}
 
-	private class Snapshot {
-		long sum = 0;
-		long max = 0;
-		long min = 0;
+	/**
+	 * A timing context. Stopping it records the elapsed time since
+	 * {@link Timer#time()} was called.
+	 */
+	public static final class Context implements AutoCloseable {
+		private final Timer timer;
+		private final long startTime;
 
-		public Snapshot() {
+		private Context(Timer timer, long startTime) {
+			this.timer = timer;
+			this.startTime = startTime;
+		}
 
+		/**
+		 * Updates the timer with the elapsed time.
+		 *
+		 * @return the elapsed time in nanoseconds
+		 */
+		public long stop() {
+			return stop(timer);
 		}
-		public void update(Timer timer) {
-			this.sum = timer.sum.longValue();
-			this.max = timer.max;
-			this.min = timer.min;
+
+		/**
+		 * Updates {@code target} rather than the timer that started the
+		 * context, for durations recorded by the outcome of the timed call.
+		 *
+		 * @return the elapsed time in nanoseconds
+		 */
+		public long stop(Timer target) {
+			final long elapsed = timer.clock.getTick() - startTime;
+			target.update(elapsed, TimeUnit.NANOSECONDS);
+			return elapsed;
 		}
 
-		public void update(Snapshot snapshot) {
-			this.sum = snapshot.sum;
-			this.max = snapshot.max;
-			this.min = snapshot.min;
+		@Override
+		public void close() {
+			stop();
 		}
 	}
 
@@ -0,0 +1,29 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CachedGaugeTest {
+
+	@Test
+	public void timeoutTest() {
+		ManualClock clock = new ManualClock();
+		int[] loads = new int[1];
+		CachedGauge<Integer> gauge = new CachedGauge<Integer>(clock, 10, TimeUnit.SECONDS) {
+			@Override
+			protected Integer loadValue() {
+				return ++loads[0];
+			}
+		};
+
+		assertEquals(1, gauge.getValue().intValue());
+		clock.advance(9, TimeUnit.SECONDS);
+		assertEquals(1, gauge.getValue().intValue());
+		clock.advance(1, TimeUnit.SECONDS);
+		assertEquals(2, gauge.getValue().intValue());
+		assertEquals(2, loads[0]);
+	}
+}
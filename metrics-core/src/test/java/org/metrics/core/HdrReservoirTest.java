@@ -0,0 +1,42 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Snapshot;
+
+public class HdrReservoirTest {
+
+	@Test
+	public void intervalPercentilesTest() {
+		HdrReservoir reservoir = new HdrReservoir();
+		for (int i = 1; i <= 1000; i++) {
+			reservoir.update(i);
+		}
+		assertEquals(0, reservoir.getSnapshot().size());
+
+		reservoir.sample();
+		Snapshot snapshot = reservoir.getSnapshot();
+		assertEquals(1000, snapshot.size());
+		assertEquals(1, snapshot.getMin());
+		assertEquals(1000, snapshot.getMax(), 10);
+		assertEquals(500, snapshot.getMedian(), 5);
+		assertEquals(990, snapshot.get99thPercentile(), 10);
+
+		reservoir.update(7);
+		reservoir.sample();
+		snapshot = reservoir.getSnapshot();
+		assertEquals(1, snapshot.size());
+		assertEquals(7, snapshot.getMax());
+	}
+
+	@Test
+	public void clampTest() {
+		HdrReservoir reservoir = new HdrReservoir(1000, 2);
+		reservoir.update(Long.MAX_VALUE);
+		reservoir.sample();
+		assertEquals(1000, reservoir.getSnapshot().getMax(), 10);
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.metrics.core;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+
+class ManualClock extends Clock {
+	private long tick;
+
+	@Override
+	public long getTick() {
+		return tick;
+	}
+
+	@Override
+	public long getTime() {
+		return TimeUnit.NANOSECONDS.toMillis(tick);
+	}
+
+	void advance(long duration, TimeUnit unit) {
+		tick += unit.toNanos(duration);
+	}
+}
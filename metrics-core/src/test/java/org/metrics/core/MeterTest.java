@@ -0,0 +1,58 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MeterTest {
+
+	@Test
+	public void intervalRateTest() {
+		ManualClock clock = new ManualClock();
+		Meter meter = new Meter(clock);
+
+		meter.mark();
+		meter.mark(4);
+		clock.advance(1, TimeUnit.SECONDS);
+		meter.sample();
+
+		assertEquals(5, meter.getCount());
+		assertEquals(5, meter.getIntervalCount());
+		assertEquals(5.0, meter.getRate(), 0.001);
+		assertEquals(5.0, meter.getMeanRate(), 0.001);
+		assertEquals(5.0, meter.getOneMinuteRate(), 0.001);
+
+		clock.advance(1, TimeUnit.SECONDS);
+		meter.sample();
+		assertEquals(0.0, meter.getRate(), 0.001);
+		assertEquals(5, meter.getCount());
+
+		meter.mark(30);
+		clock.advance(10, TimeUnit.SECONDS);
+		meter.sample();
+		assertEquals(30, meter.getIntervalCount());
+		assertEquals(3.0, meter.getRate(), 0.001);
+	}
+
+	@Test
+	public void movingAverageTest() {
+		ManualClock clock = new ManualClock();
+		Meter meter = new Meter(clock);
+
+		clock.advance(1, TimeUnit.SECONDS);
+		meter.sample();
+		for (int i = 0; i < 60; i++) {
+			meter.mark(10);
+			clock.advance(1, TimeUnit.SECONDS);
+			meter.sample();
+		}
+
+		// one time constant of a step from 0 to 10 events/s
+		assertEquals(10 * (1 - Math.exp(-1)), meter.getOneMinuteRate(), 0.01);
+		assertEquals(10 * (1 - Math.exp(-1.0 / 5)), meter.getFiveMinuteRate(), 0.01);
+		assertEquals(10 * (1 - Math.exp(-1.0 / 15)), meter.getFifteenMinuteRate(), 0.01);
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MetricIdTest {
+
+	@Test
+	public void internTest() {
+		assertSame(MetricId.of("requests"), MetricId.of("requests"));
+		assertSame(MetricId.of("requests", "status", "200", "method", "GET"),
+				MetricId.of("requests", "method", "GET", "status", "200"));
+		assertSame(MetricId.of("requests", "method", "GET"),
+				MetricId.of("requests").tagged("method", "GET"));
+		assertNotEquals(MetricId.of("requests"), MetricId.of("requests", "method", "GET"));
+	}
+
+	@Test
+	public void collectedTest() throws InterruptedException {
+		MetricId kept = MetricId.of("requests", "host", "kept");
+		int before = MetricId.internedCount();
+		for (int i = 0; i < 10000; i++) {
+			MetricId.of("requests", "host", "host-" + i);
+		}
+		for (int i = 0; i < 50 && MetricId.internedCount() > before; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertTrue(MetricId.internedCount() <= before);
+		assertSame(kept, MetricId.of("requests", "host", "kept"));
+	}
+
+	@Test
+	public void tagsTest() {
+		MetricId id = MetricId.of("requests", "status", "200", "method", "GET");
+		assertEquals(2, id.getTagCount());
+		assertEquals("method", id.getTagKey(0));
+		assertEquals("GET", id.getTagValue(0));
+		assertEquals("requests{method=GET,status=200}", id.toString());
+
+		MetricId replaced = id.tagged("status", "500", "host", "a");
+		assertEquals("requests{host=a,method=GET,status=500}", replaced.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddTagsTest() {
+		MetricId.of("requests", "status");
+	}
+
+	@Test
+	public void registryTest() {
+		MetricRegistry registry = new MetricRegistry();
+		MetricId ok = MetricId.of("requests", "status", "200");
+		MetricId error = MetricId.of("requests", "status", "500");
+		registry.meter(ok).mark();
+		registry.meter(error).mark();
+
+		assertSame(registry.meter(ok), registry.meter(MetricId.of("requests", "status", "200")));
+		assertEquals(2, registry.meterMap().size());
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MetricRegistryTest {
+
+	@Test
+	public void getOrCreateTest() {
+		MetricRegistry registry = new MetricRegistry();
+		assertSame(registry.meter("a"), registry.meter("a"));
+		assertSame(registry.timber("b"), registry.timber("b", HdrReservoir::new));
+		assertEquals(1, registry.meterMap().size());
+		assertEquals(1, registry.timerMap().size());
+		assertTrue(registry.remove("a"));
+		assertTrue(registry.meterMap().isEmpty());
+	}
+
+	@Test
+	public void typeMapTest() {
+		MetricRegistry registry = new MetricRegistry();
+		registry.meter("a");
+		Map<MetricId, Meter> meters = registry.meterMap();
+		registry.meter("a");
+		assertSame(meters, registry.meterMap());
+		registry.timber("t", HdrReservoir::new);
+		Map<MetricId, Timer> timers = registry.timerMap();
+		registry.timber("t", HdrReservoir::new);
+		assertSame(timers, registry.timerMap());
+
+		registry.counter("b");
+		assertNotSame(meters, registry.meterMap());
+		assertEquals(1, registry.counterMap().size());
+		registry.remove("b");
+		assertTrue(registry.counterMap().isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void typeConflictTest() {
+		MetricRegistry registry = new MetricRegistry();
+		registry.meter("a");
+		registry.timber("a");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateRegisterTest() {
+		MetricRegistry registry = new MetricRegistry();
+		registry.register("a", new Meter());
+		registry.register("a", new Meter());
+	}
+
+	@Test
+	public void concurrentCreateTest() throws InterruptedException {
+		final MetricRegistry registry = new MetricRegistry();
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final Set<Meter> meters = ConcurrentHashMap.newKeySet();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < threads; i++) {
+			executor.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int j = 0; j < 1000; j++) {
+					Meter meter = registry.meter("meter-" + j);
+					meter.mark();
+					if (j == 0) {
+						meters.add(meter);
+					}
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertEquals(1, meters.size());
+		assertEquals(1000, registry.meterMap().size());
+		for (Meter meter : registry.meterMap().values()) {
+			assertEquals(threads, meter.getCount());
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RegistrySnapshotTest {
+
+	@Test
+	public void fillTest() {
+		ManualClock clock = new ManualClock();
+		MetricRegistry registry = new MetricRegistry(clock);
+		registry.meter("requests").mark(5);
+		Timer timer = registry.timber("latency");
+		timer.update(2, TimeUnit.MILLISECONDS);
+		timer.update(4, TimeUnit.MILLISECONDS);
+		clock.advance(1, TimeUnit.SECONDS);
+
+		RegistrySnapshot snapshot = new RegistrySnapshot().fill(1000, registry);
+
+		assertEquals(1000, snapshot.getTimestamp());
+		RegistrySnapshot.Section meters = snapshot.meters();
+		assertEquals(1, meters.size());
+		assertEquals(MetricId.of("requests"), meters.id(0));
+		assertEquals(5, meters.count(0));
+		assertEquals(5.0, meters.rate(0), 0.001);
+		assertEquals(0, meters.max(0));
+
+		RegistrySnapshot.Section timers = snapshot.timers();
+		assertEquals(1, timers.size());
+		assertEquals(2, timers.intervalCount(0));
+		assertEquals(4, timers.max(0));
+		assertEquals(2, timers.min(0));
+		assertEquals(3.0, timers.avg(0), 0.001);
+		assertEquals(4.0, timers.percentile(0, RegistrySnapshot.P99), 0.001);
+	}
+
+	@Test
+	public void reuseTest() {
+		MetricRegistry registry = new MetricRegistry(new ManualClock());
+		for (int i = 0; i < 40; i++) {
+			registry.meter("meter-" + i).mark(i);
+			registry.counter("counter-" + i).inc(i);
+			int value = i;
+			registry.gauge("gauge-" + i, () -> value);
+		}
+		RegistrySnapshot snapshot = new RegistrySnapshot();
+		snapshot.fill(1000, registry);
+		assertEquals(40, snapshot.meters().size());
+		double values = 0;
+		for (int i = 0; i < snapshot.gauges().size(); i++) {
+			values += snapshot.gauges().value(i) + snapshot.counters().count(i);
+		}
+		assertEquals(2 * 780, values, 0.0);
+
+		for (int i = 10; i < 40; i++) {
+			registry.remove("meter-" + i);
+		}
+		snapshot.fill(2000, registry);
+		assertEquals(10, snapshot.meters().size());
+		long total = 0;
+		for (int i = 0; i < snapshot.meters().size(); i++) {
+			total += snapshot.meters().count(i);
+		}
+		assertEquals(45, total);
+	}
+
+	@Test
+	public void countersAndGaugesTest() {
+		MetricRegistry registry = new MetricRegistry(new ManualClock());
+		Counter inFlight = registry.counter("in-flight");
+		inFlight.inc(5);
+		inFlight.dec();
+		Queue<String> queue = new ArrayDeque<>(Arrays.asList("a", "b", "c"));
+		registry.gauge("queue", queue::size);
+		registry.gauge("open", () -> true);
+		registry.gauge("name", () -> "not a number");
+		registry.gauge("broken", () -> {
+			throw new IllegalStateException();
+		});
+
+		RegistrySnapshot snapshot = new RegistrySnapshot().fill(1000, registry);
+
+		assertEquals(1, snapshot.counters().size());
+		assertEquals(4, snapshot.counters().count(0));
+		Map<MetricId, Double> gauges = new HashMap<>();
+		for (int i = 0; i < snapshot.gauges().size(); i++) {
+			gauges.put(snapshot.gauges().id(i), snapshot.gauges().value(i));
+		}
+		// the string and the failing gauge are left out
+		assertEquals(2, gauges.size());
+		assertEquals(3.0, gauges.get(MetricId.of("queue")), 0.0);
+		assertEquals(1.0, gauges.get(MetricId.of("open")), 0.0);
+	}
+}
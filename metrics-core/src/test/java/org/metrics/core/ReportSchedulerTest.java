@@ -0,0 +1,94 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ReportSchedulerTest {
+
+	private static class CapturingReporter extends ScheduledReporter {
+		private final List<Long> timestamps = new ArrayList<>();
+		private final List<Long> counts = new ArrayList<>();
+		private final CountDownLatch reported;
+		private final CountDownLatch release;
+
+		CapturingReporter(MetricRegistry registry, int reports, CountDownLatch release) {
+			super(registry, "capturing");
+			this.reported = new CountDownLatch(reports);
+			this.release = release;
+		}
+
+		@Override
+		public void report(long timestamp, Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+			timestamps.add(timestamp);
+			counts.add(meterMap.get(MetricId.of("requests")).getIntervalCount());
+			reported.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void report(Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+		}
+	}
+
+	@Test
+	public void nextTickTest() {
+		assertEquals(10000, ReportScheduler.nextTick(0, 10000));
+		assertEquals(10000, ReportScheduler.nextTick(9999, 10000));
+		assertEquals(20000, ReportScheduler.nextTick(10000, 10000));
+		assertEquals(1571234580000L, ReportScheduler.nextTick(1571234567890L, 60000));
+	}
+
+	@Test
+	public void slowReporterTest() throws InterruptedException {
+		ManualClock clock = new ManualClock();
+		MetricRegistry registry = new MetricRegistry(clock);
+		Meter requests = registry.meter("requests");
+		CountDownLatch release = new CountDownLatch(1);
+		CapturingReporter fast = new CapturingReporter(registry, 3, new CountDownLatch(0));
+		CapturingReporter slow = new CapturingReporter(registry, 1, release);
+
+		try (ReportScheduler scheduler = new ReportScheduler(registry)) {
+			scheduler.add(fast);
+			scheduler.add(slow);
+			for (int tick = 1; tick <= 3; tick++) {
+				requests.mark(tick);
+				clock.advance(1, TimeUnit.SECONDS);
+				scheduler.tick(tick * 1000);
+				// the slow reporter is busy with the first interval from here on
+				assertTrue(slow.reported.await(5, TimeUnit.SECONDS));
+				assertTrue(awaitReports(fast, tick));
+			}
+			release.countDown();
+		}
+
+		// sampled once per tick, however many reporters
+		assertEquals(Arrays.asList(1000L, 2000L, 3000L), fast.timestamps);
+		assertEquals(Arrays.asList(1L, 2L, 3L), fast.counts);
+		assertEquals(Arrays.asList(1000L), slow.timestamps);
+		assertEquals(Arrays.asList(1L), slow.counts);
+	}
+
+	private static boolean awaitReports(CapturingReporter reporter, int reports) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (reporter.reported.getCount() > 3 - reports) {
+			if (System.nanoTime() > deadline) {
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		return true;
+	}
+}
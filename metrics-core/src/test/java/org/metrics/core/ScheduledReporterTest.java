@@ -0,0 +1,94 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ScheduledReporterTest {
+
+	private static class CapturingReporter extends ScheduledReporter {
+		private final List<MetricId> reported = new ArrayList<>();
+
+		CapturingReporter(MetricRegistry registry, int heartbeatIntervals) {
+			super(registry, "capturing");
+			skipIdleMetrics(heartbeatIntervals);
+		}
+
+		@Override
+		public void report(Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+			reported.clear();
+			reported.addAll(meterMap.keySet());
+			reported.addAll(timerMap.keySet());
+		}
+	}
+
+	@Test
+	public void skipIdleMetricsTest() {
+		ManualClock clock = new ManualClock();
+		MetricRegistry registry = new MetricRegistry(clock);
+		Meter busy = registry.meter("busy");
+		registry.meter("idle");
+		Timer timer = registry.timber("timer");
+		CapturingReporter reporter = new CapturingReporter(registry, 3);
+		MetricId busyId = MetricId.of("busy");
+		MetricId idleId = MetricId.of("idle");
+		MetricId timerId = MetricId.of("timer");
+
+		busy.mark();
+		timer.update(1, TimeUnit.MILLISECONDS);
+		reporter.report();
+		// the idle meter is in its first idle interval
+		assertEquals(Arrays.asList(busyId, idleId, timerId), reporter.reported);
+
+		busy.mark();
+		reporter.report();
+		assertEquals(Arrays.asList(busyId, timerId), reporter.reported);
+
+		busy.mark();
+		reporter.report();
+		// heartbeat of the idle meter
+		assertEquals(Arrays.asList(busyId, idleId), reporter.reported);
+
+		reporter.report();
+		// busy drops to zero, heartbeat of the timer
+		assertEquals(Arrays.asList(busyId, timerId), reporter.reported);
+
+		reporter.report();
+		assertEquals(Collections.emptyList(), reporter.reported);
+	}
+
+	@Test
+	public void startTest() throws InterruptedException {
+		MetricRegistry registry = new MetricRegistry();
+		List<Long> timestamps = Collections.synchronizedList(new ArrayList<>());
+		ScheduledReporter reporter = new ScheduledReporter(registry, "ticks") {
+			@Override
+			public void report(long timestamp, Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+				timestamps.add(timestamp);
+			}
+
+			@Override
+			public void report(Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+			}
+		};
+		reporter.start(100, TimeUnit.MILLISECONDS);
+		Thread.sleep(450);
+		reporter.stop();
+		int reports = timestamps.size();
+		Thread.sleep(200);
+
+		assertEquals(reports, timestamps.size());
+		assertTrue(reports >= 3);
+		for (long timestamp : timestamps) {
+			assertEquals(0, timestamp % 100);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.metrics.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+
+public class TimerTest {
+
+	@Test
+	public void overlappingContextsTest() {
+		ManualClock clock = new ManualClock();
+		Timer timer = new Timer(clock);
+
+		Timer.Context outer = timer.time();
+		clock.advance(5, TimeUnit.MILLISECONDS);
+		Timer.Context inner = timer.time();
+		clock.advance(3, TimeUnit.MILLISECONDS);
+
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(3), inner.stop());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(8), outer.stop());
+
+		timer.sample();
+		assertEquals(2, timer.getCount());
+		assertEquals(8, timer.getMax());
+		assertEquals(3, timer.getMin());
+	}
+
+	@Test
+	public void stopIntoTest() {
+		ManualClock clock = new ManualClock();
+		Timer success = new Timer(clock);
+		Timer failure = new Timer(clock);
+
+		Timer.Context context = success.time();
+		clock.advance(4, TimeUnit.MILLISECONDS);
+		context.stop(failure);
+
+		success.sample();
+		failure.sample();
+		assertEquals(0, success.getCount());
+		assertEquals(1, failure.getCount());
+		assertEquals(4, failure.getMax());
+	}
+
+	@Test
+	public void timeRunnableTest() {
+		ManualClock clock = new ManualClock();
+		Timer timer = new Timer(clock);
+
+		timer.time(() -> clock.advance(7, TimeUnit.MILLISECONDS));
+		timer.update(2, TimeUnit.SECONDS);
+
+		timer.sample();
+		assertEquals(2, timer.getCount());
+		assertEquals(2000, timer.getMax());
+		assertEquals(7, timer.getMin());
+	}
+
+	@Test
+	public void concurrentExtremesTest() throws InterruptedException {
+		final int threads = 8;
+		final int perThread = 100000;
+		final Timer timer = new Timer(Clock.defaultClock(), new HdrReservoir());
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		for (int t = 0; t < threads; t++) {
+			final int offset = t;
+			new Thread(() -> {
+				for (int i = 0; i < perThread; i++) {
+					timer.update(1 + offset + (long) i * threads, TimeUnit.MILLISECONDS);
+				}
+				done.countDown();
+			}).start();
+		}
+
+		long max = 0;
+		long min = Long.MAX_VALUE;
+		Thread waiter = new Thread(() -> {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			running.set(false);
+		});
+		waiter.start();
+		while (running.get()) {
+			timer.sample();
+			max = Math.max(max, timer.getMax());
+			min = timer.getMin() > 0 ? Math.min(min, timer.getMin()) : min;
+		}
+		timer.sample();
+		max = Math.max(max, timer.getMax());
+		min = timer.getMin() > 0 ? Math.min(min, timer.getMin()) : min;
+
+		assertEquals((long) threads * perThread, timer.getCount());
+		assertEquals((long) threads * perThread, max);
+		assertEquals(1, min);
+	}
+
+	@Test
+	public void consistentIntervalTest() throws InterruptedException {
+		final int threads = 4;
+		final int perThread = 200000;
+		final Timer timer = new Timer(Clock.defaultClock(), new HdrReservoir());
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				for (int i = 0; i < perThread; i++) {
+					timer.update(3, TimeUnit.MILLISECONDS);
+				}
+				done.countDown();
+			}).start();
+		}
+
+		long count = 0;
+		long distributed = 0;
+		boolean finished;
+		do {
+			finished = done.getCount() == 0;
+			IntervalSnapshot interval = timer.sample();
+			// a duration is never counted in one interval and summed in another
+			assertEquals(3 * interval.getIntervalCount(), interval.getSum());
+			assertEquals(interval.getCount(), timer.getCount());
+			count += interval.getIntervalCount();
+			distributed += interval.getDistribution().size();
+		} while (!finished);
+
+		assertEquals((long) threads * perThread, count);
+		assertEquals(count, timer.getCount());
+		// the distributions may split differently, but lose nothing
+		assertEquals(count, distributed);
+	}
+
+}
@@ -0,0 +1,375 @@
+package org.metrics.elasticsearch.reporter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.metric.transport.http.HttpSender;
+import org.metric.transport.http.HttpSender.Compression;
+import org.metric.transport.http.HttpSender.Request;
+import org.metric.transport.http.HttpSender.Response;
+import org.metrics.core.Meter;
+import org.metrics.core.MetricId;
+import org.metrics.core.MetricRegistry;
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter.OverflowPolicy;
+import org.metrics.elasticsearch.reporter.NodePool.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Sends bulk payloads asynchronously with at most {@code maxInFlight}
+ * requests outstanding, so a slow node never blocks the reporter thread.
+ * Payloads arriving while all requests are in flight are dropped or
+ * coalesced into one pending request, depending on the
+ * {@link OverflowPolicy}. Bulk bodies are NDJSON, so coalescing is a plain
+ * concatenation.
+ *
+ * <p>
+ * A request that fails with a network error, 429 or a 5xx response is
+ * retried on the next node the {@link NodePool} offers, up to
+ * {@code maxRetries} times. If Elasticsearch accepted the request but
+ * rejected some documents, only the documents rejected with 429 or 5xx are
+ * retried, documents rejected for other reasons are counted and dropped.
+ *
+ * <p>
+ * With a {@link BulkSpool}, payloads still undelivered after the retries
+ * are spooled to disk. Each successful live request replays
+ * up to {@code replayPerReport} spooled payloads, in order and one at a time,
+ * so a recovering cluster is not flooded.
+ *
+ * <p>
+ * The outcome of every payload is recorded in {@code es.reporter.bulk}
+ * meters of the reported registry, tagged {@code outcome=sent},
+ * {@code failed}, {@code dropped}, {@code coalesced}, {@code spooled},
+ * {@code replayed} or {@code expired}, and per attempt in {@code retried}.
+ * Documents rejected for good are counted in {@code rejected}.
+ */
+final class BulkDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(BulkDispatcher.class);
+	private static final MetricId BULK = MetricId.of("es.reporter.bulk");
+	private static final int SPOOL_SEGMENT_BYTES = 8 * 1024 * 1024;
+	/** Left to deliver when Elasticsearch rejected the whole request for good. */
+	private static final byte[] REJECTED = new byte[0];
+
+	private final HttpSender sender;
+	private final NodePool nodes;
+	private final int maxRetries;
+	private final Semaphore inFlight;
+	private final OverflowPolicy policy;
+	private final int maxCoalescedBytes;
+
+	private final Meter sent;
+	private final Meter failed;
+	private final Meter dropped;
+	private final Meter coalesced;
+	private final Meter spooled;
+	private final Meter replayed;
+	private final Meter expired;
+	private final Meter retried;
+	private final Meter rejected;
+	private final Clock clock;
+
+	/** Waiting for a request slot, guarded by this. */
+	private byte[] pending;
+
+	private Compression compression;
+	private int compressionLevel;
+	private int compressionThreshold;
+
+	private BulkSpool spool;
+	private int replayPerReport;
+	/**
+	 * Whether the last request reached a node that answered it, replay stops
+	 * otherwise. Network errors and retriable statuses count as unhealthy.
+	 */
+	private volatile boolean healthy = true;
+	private final AtomicBoolean replaying = new AtomicBoolean();
+
+	BulkDispatcher(HttpSender sender, NodePool nodes, int maxRetries, int maxInFlight,
+			OverflowPolicy policy, int maxCoalescedBytes, MetricRegistry registry) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		}
+		this.sender = sender;
+		this.nodes = nodes;
+		this.maxRetries = maxRetries;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.policy = policy;
+		this.maxCoalescedBytes = maxCoalescedBytes;
+		this.sent = registry.meter(BULK.tagged("outcome", "sent"));
+		this.failed = registry.meter(BULK.tagged("outcome", "failed"));
+		this.dropped = registry.meter(BULK.tagged("outcome", "dropped"));
+		this.coalesced = registry.meter(BULK.tagged("outcome", "coalesced"));
+		this.spooled = registry.meter(BULK.tagged("outcome", "spooled"));
+		this.replayed = registry.meter(BULK.tagged("outcome", "replayed"));
+		this.expired = registry.meter(BULK.tagged("outcome", "expired"));
+		this.retried = registry.meter(BULK.tagged("outcome", "retried"));
+		this.rejected = registry.meter(BULK.tagged("outcome", "rejected"));
+		this.clock = registry.getClock();
+	}
+
+	/**
+	 * Compresses payloads of at least {@code threshold} bytes. Call before
+	 * the first dispatch.
+	 */
+	void compress(Compression compression, int level, int threshold) {
+		this.compression = compression;
+		this.compressionLevel = level;
+		this.compressionThreshold = threshold;
+	}
+
+	/**
+	 * Spools failed payloads in {@code directory}. Call before the first
+	 * dispatch.
+	 */
+	void spool(Path directory, long maxBytes, long maxAgeMillis, int replayPerReport)
+			throws IOException {
+		this.spool = new BulkSpool(directory, maxBytes, maxAgeMillis, SPOOL_SEGMENT_BYTES, clock,
+				dropped, expired);
+		this.replayPerReport = replayPerReport;
+	}
+
+	/**
+	 * Sends {@code payload} if a request slot is free, otherwise applies the
+	 * overflow policy. Never blocks on the network unless the sender itself
+	 * is synchronous.
+	 */
+	void dispatch(byte[] payload) {
+		if (policy == OverflowPolicy.DROP) {
+			if (inFlight.tryAcquire()) {
+				send(payload);
+			} else {
+				dropped.mark();
+			}
+		} else {
+			coalesce(payload);
+			drain();
+		}
+	}
+
+	private void coalesce(byte[] payload) {
+		synchronized (this) {
+			if (pending == null) {
+				pending = payload;
+			} else if (pending.length + payload.length > maxCoalescedBytes) {
+				logger.warn("Bulk requests are falling behind, dropping {} bytes of older intervals.",
+						pending.length);
+				dropped.mark();
+				pending = payload;
+			} else {
+				pending = concat(pending, payload);
+				coalesced.mark();
+			}
+		}
+	}
+
+	/**
+	 * Sends the pending payload while request slots are free. A slot taken
+	 * when there is nothing pending is given back, and pending is checked
+	 * again in case a payload arrived in between.
+	 */
+	private void drain() {
+		while (inFlight.tryAcquire()) {
+			byte[] payload;
+			synchronized (this) {
+				payload = pending;
+				pending = null;
+			}
+			if (payload != null) {
+				send(payload);
+				continue;
+			}
+			inFlight.release();
+			synchronized (this) {
+				if (pending == null) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void send(byte[] payload) {
+		deliver(payload).whenComplete((left, error) -> {
+			inFlight.release();
+			// a request rejected for good was still answered by a live node
+			healthy = left == null || left == REJECTED;
+			if (left == null) {
+				sent.mark();
+			} else if (left != REJECTED) {
+				undelivered(left);
+			}
+			if (healthy && spool != null && replaying.compareAndSet(false, true)) {
+				replay(replayPerReport);
+			}
+			drain();
+		});
+	}
+
+	/**
+	 * Replays the oldest spooled payload if a request slot is free, and the
+	 * next one after it succeeds, up to {@code remaining} payloads. A payload
+	 * only partly delivered is spooled again with the rest of its documents.
+	 */
+	private void replay(int remaining) {
+		BulkSpool.Record record = remaining > 0 && healthy ? spool.peek() : null;
+		if (record == null || !inFlight.tryAcquire()) {
+			replaying.set(false);
+			return;
+		}
+		deliver(record.payload).whenComplete((left, error) -> {
+			inFlight.release();
+			boolean delivered = left != record.payload;
+			if (delivered) {
+				spool.remove(record);
+			}
+			if (left == null || left == REJECTED) {
+				if (left == null) {
+					replayed.mark();
+				}
+				replay(remaining - 1);
+			} else {
+				if (delivered) {
+					undelivered(left);
+				}
+				healthy = false;
+				replaying.set(false);
+			}
+			drain();
+		});
+	}
+
+	/**
+	 * Sends {@code payload}, retrying on other nodes.
+	 *
+	 * @return a future of the documents left to deliver: {@code null} if
+	 *         there are none, {@code payload} itself if no request went
+	 *         through, {@link #REJECTED} if the request is not worth retrying
+	 */
+	private CompletableFuture<byte[]> deliver(byte[] payload) {
+		CompletableFuture<byte[]> result = new CompletableFuture<>();
+		attempt(payload, maxRetries, result);
+		return result;
+	}
+
+	private void attempt(byte[] payload, int retries, CompletableFuture<byte[]> result) {
+		NodeState node = nodes.next();
+		if (node == null) {
+			logger.warn("All es nodes are cooling down, not sending {} bytes.", payload.length);
+			failed.mark();
+			result.complete(payload);
+			return;
+		}
+		post(node, payload).whenComplete((response, error) -> {
+			byte[] left = remaining(node, payload, response, error);
+			if (left == null || left == REJECTED || retries == 0) {
+				result.complete(left);
+				return;
+			}
+			retried.mark();
+			attempt(left, retries - 1, result);
+		});
+	}
+
+	/**
+	 * @return the documents to retry after a request, {@code null} if none
+	 *         or {@link #REJECTED}
+	 */
+	private byte[] remaining(NodeState node, byte[] payload, Response response, Throwable error) {
+		if (error != null) {
+			node.failed();
+			failed.mark();
+			logger.error("Send metrics to es error", error);
+			return payload;
+		}
+		if (!response.isSuccessful()) {
+			failed.mark();
+			logger.error("Send to es error,response code {},response body {}",
+					response.code(), response.body());
+			if (!retriable(response.code())) {
+				return REJECTED;
+			}
+			node.failed();
+			return payload;
+		}
+		node.succeeded();
+		logger.debug("Send to es success,response code {},response body {}",
+				response.code(), response.body());
+		int[] statuses = BulkResponse.itemStatuses(response.body());
+		if (statuses == null) {
+			return null;
+		}
+		int retriable = 0;
+		int failures = 0;
+		for (int status : statuses) {
+			if (retriable(status)) {
+				retriable++;
+			} else if (status >= 300) {
+				failures++;
+			}
+		}
+		if (failures > 0) {
+			rejected.mark(failures);
+			logger.warn("Elasticsearch rejected {} documents.", failures);
+		}
+		if (retriable == 0) {
+			return null;
+		}
+		byte[] left = BulkResponse.documents(payload, statuses, BulkDispatcher::retriable);
+		if (left == null) {
+			// the retriable documents can not be told apart, so all are retried
+			failed.mark();
+			logger.warn("Bulk response has {} items for a different number of documents, retrying all.",
+					statuses.length);
+			return payload;
+		}
+		return left;
+	}
+
+	private CompletableFuture<Response> post(NodeState node, byte[] payload) {
+		try {
+			Request.Builder request = sender.post(node.bulkUrl)
+											 .content("application/json", "UTF-8", payload);
+			if (compression != null && payload.length >= compressionThreshold) {
+				request.compress(compression, compressionLevel);
+			}
+			return request.sendAsync();
+		} catch (RuntimeException e) {
+			CompletableFuture<Response> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	/**
+	 * Whether a request or document may succeed later, as opposed to one
+	 * Elasticsearch rejects as malformed.
+	 */
+	private static boolean retriable(int status) {
+		return status == 429 || status >= 500;
+	}
+
+	private void undelivered(byte[] payload) {
+		if (spool == null) {
+			return;
+		}
+		try {
+			spool.append(payload);
+			spooled.mark();
+		} catch (IOException e) {
+			dropped.mark();
+			logger.error("Spool metrics payload error", e);
+		}
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+		byte[] result = new byte[first.length + second.length];
+		System.arraycopy(first, 0, result, 0, first.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+}
@@ -0,0 +1,134 @@
+package org.metrics.elasticsearch.reporter;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Reads the per-document outcome of a {@code _bulk} request. Only the item
+ * statuses are needed, so instead of a JSON parser this is a scanner that
+ * tracks nesting and picks the {@code errors} flag and the {@code status} of
+ * every item.
+ */
+final class BulkResponse {
+
+	private static final int ROOT = 1;
+	/** root object, items array, item object, action object */
+	private static final int ITEM_ACTION = 4;
+
+	private BulkResponse() {
+	}
+
+	/**
+	 * @param body
+	 *            the response body
+	 * @return the status of every item in request order, or {@code null} if
+	 *         the response reports no errors
+	 */
+	static int[] itemStatuses(String body) {
+		int[] statuses = new int[16];
+		int count = 0;
+		int depth = 0;
+		boolean itemsNext = false;
+		boolean inItems = false;
+		int length = body.length();
+		for (int i = 0; i < length; i++) {
+			char c = body.charAt(i);
+			if (c == '"') {
+				int end = endOfString(body, i);
+				int value = skipWhitespace(body, end + 1);
+				if (value < length && body.charAt(value) == ':') {
+					value = skipWhitespace(body, value + 1);
+					if (depth == ROOT && isKey(body, i, end, "errors")) {
+						if (body.startsWith("false", value)) {
+							return null;
+						}
+					} else if (depth == ROOT && isKey(body, i, end, "items")) {
+						itemsNext = true;
+					} else if (inItems && depth == ITEM_ACTION && isKey(body, i, end, "status")) {
+						if (count == statuses.length) {
+							statuses = Arrays.copyOf(statuses, count * 2);
+						}
+						statuses[count++] = parseInt(body, value);
+					}
+				}
+				i = end;
+			} else if (c == '{' || c == '[') {
+				depth++;
+				if (c == '[' && itemsNext && depth == ROOT + 1) {
+					inItems = true;
+				}
+			} else if (c == '}' || c == ']') {
+				if (depth == ROOT + 1) {
+					inItems = false;
+					itemsNext = false;
+				}
+				depth--;
+			}
+		}
+		return Arrays.copyOf(statuses, count);
+	}
+
+	/**
+	 * Selects the documents of an NDJSON bulk body whose status matches,
+	 * each being an action line followed by a source line.
+	 *
+	 * @return the selected documents, or {@code null} if the body does not
+	 *         have one document per status
+	 */
+	static byte[] documents(byte[] payload, int[] statuses, IntPredicate selected) {
+		byte[] result = new byte[payload.length];
+		int size = 0;
+		int start = 0;
+		int document = 0;
+		int lines = 0;
+		for (int i = 0; i < payload.length; i++) {
+			if (payload[i] != '\n' || ++lines % 2 != 0) {
+				continue;
+			}
+			if (document == statuses.length) {
+				return null;
+			}
+			if (selected.test(statuses[document])) {
+				System.arraycopy(payload, start, result, size, i + 1 - start);
+				size += i + 1 - start;
+			}
+			document++;
+			start = i + 1;
+		}
+		if (document != statuses.length || start != payload.length) {
+			return null;
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	private static boolean isKey(String body, int start, int end, String key) {
+		return end - start - 1 == key.length() && body.startsWith(key, start + 1);
+	}
+
+	private static int endOfString(String body, int start) {
+		for (int i = start + 1; i < body.length(); i++) {
+			char c = body.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '"') {
+				return i;
+			}
+		}
+		return body.length();
+	}
+
+	private static int skipWhitespace(String body, int index) {
+		while (index < body.length() && Character.isWhitespace(body.charAt(index))) {
+			index++;
+		}
+		return index;
+	}
+
+	private static int parseInt(String body, int index) {
+		int value = 0;
+		while (index < body.length() && Character.isDigit(body.charAt(index))) {
+			value = value * 10 + body.charAt(index++) - '0';
+		}
+		return value;
+	}
+}
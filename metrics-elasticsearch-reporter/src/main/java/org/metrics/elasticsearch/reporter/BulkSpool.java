@@ -0,0 +1,341 @@
+package org.metrics.elasticsearch.reporter;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.metrics.core.Meter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * A write-ahead queue of bulk payloads in memory-mapped segment files, read
+ * in the order they were appended.
+ *
+ * <p>
+ * A segment starts with its read and write offsets, followed by records of
+ * payload length, append time and payload. Both offsets live in the mapped
+ * file, so a restarted reporter continues where the last one stopped. A
+ * segment is deleted and unmapped once it is read. Before the spool would
+ * grow past its size limit the oldest segments are deleted, and records older
+ * than the age limit are skipped, both counted in the {@code dropped} and
+ * {@code expired} meters. A payload larger than the limit is dropped.
+ *
+ * <p>
+ * A directory must only be used by one reporter at a time.
+ */
+final class BulkSpool {
+
+	private static final Logger logger = LoggerFactory.getLogger(BulkSpool.class);
+	private static final String SUFFIX = ".spool";
+	private static final int HEADER_BYTES = 8;
+	private static final int RECORD_HEADER_BYTES = 12;
+	/**
+	 * Unmap a buffer: {@code Unsafe.invokeCleaner} on Java 9 and later,
+	 * {@code Cleaner.clean} of the buffer's cleaner on Java 8.
+	 */
+	private static final Object UNMAP_TARGET;
+	private static final Method UNMAP;
+	private static final Method CLEANER;
+
+	static {
+		Object target = null;
+		Method unmap = null;
+		Method cleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			unmap = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			target = field.get(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			try {
+				cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				unmap = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			} catch (ReflectiveOperationException | RuntimeException e8) {
+				logger.warn("Can not unmap spool segments, deleted segments stay mapped until collected.", e8);
+				unmap = null;
+			}
+		}
+		UNMAP_TARGET = target;
+		UNMAP = unmap;
+		CLEANER = cleaner;
+	}
+
+	private final Path directory;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+	private final int segmentBytes;
+	private final Clock clock;
+	private final Meter dropped;
+	private final Meter expired;
+
+	private final Deque<Segment> segments = new ArrayDeque<Segment>();
+	private long size;
+	private long nextSequence;
+
+	BulkSpool(Path directory, long maxBytes, long maxAgeMillis, int segmentBytes, Clock clock,
+			Meter dropped, Meter expired) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		this.segmentBytes = segmentBytes;
+		this.clock = clock;
+		this.dropped = dropped;
+		this.expired = expired;
+		Files.createDirectories(directory);
+		load();
+	}
+
+	private void load() throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path path : stream) {
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);
+		for (Path path : paths) {
+			String name = path.getFileName().toString();
+			try {
+				long sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+				Segment segment = Segment.open(path);
+				nextSequence = Math.max(nextSequence, sequence + 1);
+				segments.addLast(segment);
+				size += segment.capacity;
+			} catch (NumberFormatException | IOException e) {
+				logger.warn("Deleting unreadable spool segment {}", path, e);
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/**
+	 * Appends {@code payload} behind all spooled payloads.
+	 */
+	synchronized void append(byte[] payload) throws IOException {
+		int length = RECORD_HEADER_BYTES + payload.length;
+		Segment tail = segments.peekLast();
+		if (tail == null || !tail.fits(length)) {
+			// segments are never larger than the spool, unless one payload is
+			long capacity = Math.max(Math.min(segmentBytes, maxBytes), HEADER_BYTES + length);
+			if (capacity > maxBytes) {
+				logger.warn("Payload of {} bytes is larger than the spool, dropping it.", payload.length);
+				dropped.mark();
+				return;
+			}
+			while (size + capacity > maxBytes) {
+				Segment head = segments.peekFirst();
+				int records = head.remaining();
+				if (records > 0) {
+					logger.warn("Spool is full, dropping {} payloads.", records);
+					dropped.mark(records);
+				}
+				delete(head);
+			}
+			Path path = directory.resolve(String.format("%020d%s", nextSequence++, SUFFIX));
+			tail = Segment.create(path, (int) capacity);
+			segments.addLast(tail);
+			size += tail.capacity;
+		}
+		tail.append(payload, clock.getTime());
+	}
+
+	/**
+	 * Returns the oldest payload that is not expired, leaving it in the
+	 * spool, or {@code null} if there is none.
+	 */
+	synchronized Record peek() {
+		Segment head;
+		while ((head = segments.peekFirst()) != null) {
+			if (!head.hasNext()) {
+				if (head == segments.peekLast()) {
+					return null;
+				}
+				delete(head);
+				continue;
+			}
+			int offset = head.readOffset();
+			if (clock.getTime() - head.time(offset) > maxAgeMillis) {
+				head.skip();
+				expired.mark();
+				continue;
+			}
+			return new Record(head, offset, head.payload(offset));
+		}
+		return null;
+	}
+
+	/**
+	 * Removes {@code record} if it is still the oldest payload, which it is
+	 * not if it was dropped or expired in the meantime.
+	 */
+	synchronized void remove(Record record) {
+		Segment head = segments.peekFirst();
+		if (head == record.segment && head.readOffset() == record.offset) {
+			head.skip();
+			if (!head.hasNext() && head != segments.peekLast()) {
+				delete(head);
+			}
+		}
+	}
+
+	/**
+	 * Deletes and unmaps {@code segment}, which must not be read afterwards.
+	 */
+	private void delete(Segment segment) {
+		segments.remove(segment);
+		size -= segment.capacity;
+		unmap(segment.buffer);
+		try {
+			Files.deleteIfExists(segment.path);
+		} catch (IOException e) {
+			logger.warn("Delete spool segment {} error", segment.path, e);
+		}
+	}
+
+	/**
+	 * Releases the mapping now rather than when the buffer is collected,
+	 * which may take long for a buffer that survived to the old generation.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (UNMAP == null) {
+			return;
+		}
+		try {
+			if (CLEANER == null) {
+				UNMAP.invoke(UNMAP_TARGET, buffer);
+			} else {
+				Object cleaner = CLEANER.invoke(buffer);
+				if (cleaner != null) {
+					UNMAP.invoke(cleaner);
+				}
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("Unmap spool segment error", e);
+		}
+	}
+
+	static final class Record {
+		private final Segment segment;
+		private final int offset;
+		final byte[] payload;
+
+		private Record(Segment segment, int offset, byte[] payload) {
+			this.segment = segment;
+			this.offset = offset;
+			this.payload = payload;
+		}
+	}
+
+	private static final class Segment {
+		private final Path path;
+		private final MappedByteBuffer buffer;
+		private final int capacity;
+
+		private Segment(Path path, MappedByteBuffer buffer) {
+			this.path = path;
+			this.buffer = buffer;
+			this.capacity = buffer.capacity();
+		}
+
+		static Segment create(Path path, int capacity) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				Segment segment = new Segment(path, channel.map(MapMode.READ_WRITE, 0, capacity));
+				segment.buffer.putInt(0, HEADER_BYTES);
+				segment.buffer.putInt(4, HEADER_BYTES);
+				return segment;
+			}
+		}
+
+		static Segment open(Path path) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				long capacity = channel.size();
+				if (capacity < HEADER_BYTES || capacity > Integer.MAX_VALUE) {
+					throw new IOException("Invalid segment size " + capacity);
+				}
+				Segment segment = new Segment(path, channel.map(MapMode.READ_WRITE, 0, capacity));
+				int read = segment.readOffset();
+				int write = segment.writeOffset();
+				if (read < HEADER_BYTES || read > write || write > capacity) {
+					unmap(segment.buffer);
+					throw new IOException("Invalid segment offsets " + read + ", " + write);
+				}
+				return segment;
+			}
+		}
+
+		int readOffset() {
+			return buffer.getInt(0);
+		}
+
+		int writeOffset() {
+			return buffer.getInt(4);
+		}
+
+		boolean fits(int length) {
+			return writeOffset() + length <= capacity;
+		}
+
+		boolean hasNext() {
+			return readOffset() < writeOffset();
+		}
+
+		int remaining() {
+			int count = 0;
+			for (int offset = readOffset(); offset < writeOffset(); offset += RECORD_HEADER_BYTES
+					+ buffer.getInt(offset)) {
+				count++;
+			}
+			return count;
+		}
+
+		long time(int offset) {
+			return buffer.getLong(offset + 4);
+		}
+
+		byte[] payload(int offset) {
+			byte[] payload = new byte[buffer.getInt(offset)];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + RECORD_HEADER_BYTES);
+			view.get(payload);
+			return payload;
+		}
+
+		/**
+		 * Writes the record, then publishes it by advancing the write offset.
+		 */
+		void append(byte[] payload, long time) {
+			int offset = writeOffset();
+			buffer.putInt(offset, payload.length);
+			buffer.putLong(offset + 4, time);
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + RECORD_HEADER_BYTES);
+			view.put(payload);
+			buffer.putInt(4, offset + RECORD_HEADER_BYTES + payload.length);
+			buffer.force();
+		}
+
+		void skip() {
+			int offset = readOffset();
+			buffer.putInt(0, offset + RECORD_HEADER_BYTES + buffer.getInt(offset));
+		}
+	}
+}
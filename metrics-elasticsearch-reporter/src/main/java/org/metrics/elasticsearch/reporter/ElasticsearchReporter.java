@@ -2,22 +2,29 @@ package org.metrics.elasticsearch.reporter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 import org.metric.transport.http.ConsoleSender;
 import org.metric.transport.http.HttpSender;
+import org.metric.transport.http.HttpSender.Compression;
 import org.metrics.core.ConsoleReporter;
 import org.metrics.core.Meter;
+import org.metrics.core.MetricId;
 import org.metrics.core.MetricRegistry;
+import org.metrics.core.RegistrySnapshot;
+import org.metrics.core.RegistrySnapshot.Section;
 import org.metrics.core.ScheduledReporter;
 import org.metrics.core.Timer;
+import org.metrics.elasticsearch.reporter.NodePool.NodeState;
 import org.metrics.util.IOUtil;
 import org.metrics.util.IPUtil;
 import org.metrics.util.StringUtil;
@@ -25,7 +32,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Clock;
-import com.codahale.metrics.Snapshot;
 
 public class ElasticsearchReporter extends ScheduledReporter {
 
@@ -57,6 +63,21 @@ public class ElasticsearchReporter extends ScheduledReporter {
 		}
 	}
 
+	/**
+	 * What to do with an interval when all bulk requests allowed in flight
+	 * are still outstanding.
+	 */
+	public enum OverflowPolicy {
+		/** Drop the interval. */
+		DROP,
+		/**
+		 * Append the interval to one pending request, sent as soon as a
+		 * request completes. The oldest intervals are dropped if it grows past
+		 * the coalescing limit.
+		 */
+		COALESCE
+	}
+
 	/**
 	 * A builder for {@link ElasticsearchReporter} instances. Defaults to using the
 	 * default locale and time zone, writing to ElasticSearch, converting rates to
@@ -69,12 +90,32 @@ public class ElasticsearchReporter extends ScheduledReporter {
 		private List<Node> esNodes;
 		private HttpSender httpSender;
 		private String localHost;
+		private int maxRetries;
+		private int maxInFlightRequests;
+		private OverflowPolicy overflowPolicy;
+		private int maxCoalescedBytes;
+		private Path spoolDirectory;
+		private long spoolMaxBytes;
+		private long spoolMaxAgeMillis;
+		private int replayPerReport;
+		private int heartbeatIntervals;
+		private Compression compression;
+		private int compressionLevel;
+		private int compressionThreshold;
 
 		private Builder(MetricRegistry registry) {
 			this.registry = registry;
 			this.esMajorVersion = 6;
 			this.esNodes = new ArrayList<>();
 			this.httpSender = new ConsoleSender();
+			this.maxRetries = 2;
+			this.maxInFlightRequests = 2;
+			this.overflowPolicy = OverflowPolicy.COALESCE;
+			this.maxCoalescedBytes = 32 * 1024 * 1024;
+			this.spoolMaxBytes = 256L * 1024 * 1024;
+			this.spoolMaxAgeMillis = TimeUnit.DAYS.toMillis(1);
+			this.replayPerReport = 2;
+			this.heartbeatIntervals = 1;
 		}
 
 		public Builder esMajorVersion(int esMajorVersion) {
@@ -102,39 +143,165 @@ public class ElasticsearchReporter extends ScheduledReporter {
 			return this;
 		}
 
+		/**
+		 * Limits how often a bulk request that failed on one node is retried
+		 * on the next, 2 by default.
+		 */
+		public Builder maxRetries(int maxRetries) {
+			this.maxRetries = maxRetries;
+			return this;
+		}
+
+		/**
+		 * Limits the bulk requests sent but not yet answered, 2 by default.
+		 */
+		public Builder maxInFlightRequests(int maxInFlightRequests) {
+			this.maxInFlightRequests = maxInFlightRequests;
+			return this;
+		}
+
+		/**
+		 * Sets what happens to intervals reported while
+		 * {@link #maxInFlightRequests(int)} requests are outstanding,
+		 * {@link OverflowPolicy#COALESCE} by default.
+		 */
+		public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
+		/**
+		 * Caps the size of a coalesced request, 32 MB by default.
+		 */
+		public Builder maxCoalescedBytes(int maxCoalescedBytes) {
+			this.maxCoalescedBytes = maxCoalescedBytes;
+			return this;
+		}
+
+		/**
+		 * Spools requests that failed because Elasticsearch was unreachable
+		 * or overloaded to memory-mapped files in {@code spoolDirectory}, and
+		 * replays them once it recovers. Not spooled by default. The
+		 * directory must not be shared with another reporter.
+		 */
+		public Builder spoolDirectory(Path spoolDirectory) {
+			this.spoolDirectory = spoolDirectory;
+			return this;
+		}
+
+		/**
+		 * Caps the spool size, the oldest requests are dropped beyond it. 256
+		 * MB by default.
+		 */
+		public Builder spoolMaxBytes(long spoolMaxBytes) {
+			this.spoolMaxBytes = spoolMaxBytes;
+			return this;
+		}
+
+		/**
+		 * Spooled requests older than this are dropped, one day by default.
+		 */
+		public Builder spoolMaxAge(long duration, TimeUnit unit) {
+			this.spoolMaxAgeMillis = unit.toMillis(duration);
+			return this;
+		}
+
+		/**
+		 * Limits the spooled requests replayed per report, 2 by default.
+		 */
+		public Builder replayPerReport(int replayPerReport) {
+			this.replayPerReport = replayPerReport;
+			return this;
+		}
+
+		/**
+		 * Does not index metrics without events in the last interval, except
+		 * in their first idle interval and then every
+		 * {@code heartbeatIntervals} intervals. 1, the default, indexes every
+		 * metric in every interval.
+		 */
+		public Builder skipIdleMetrics(int heartbeatIntervals) {
+			this.heartbeatIntervals = heartbeatIntervals;
+			return this;
+		}
+
+		/**
+		 * Compresses bulk requests of at least {@code threshold} bytes. At
+		 * level 1 this takes about 5 ms of CPU per MB and shrinks metric
+		 * documents about twenty times, see {@code CompressionBenchmark}. Not
+		 * compressed by default.
+		 *
+		 * @param compression
+		 *            the format, {@code null} to disable compression
+		 * @param level
+		 *            the deflate level, 1 is fastest and usually enough for
+		 *            the repetitive metric documents
+		 * @param threshold
+		 *            the smallest request size in bytes worth compressing
+		 */
+		public Builder compression(Compression compression, int level, int threshold) {
+			this.compression = compression;
+			this.compressionLevel = level;
+			this.compressionThreshold = threshold;
+			return this;
+		}
+
 		/**
 		 * Builds a {@link ConsoleReporter} with the given properties.
 		 *
 		 * @return a {@link ConsoleReporter}
 		 */
 		public ElasticsearchReporter build() {
-			return new ElasticsearchReporter(registry, esMajorVersion, esNodes,
-					httpSender, localHost);
+			return new ElasticsearchReporter(this);
 		}
 	}
 
 	private static final Logger logger = LoggerFactory
 			.getLogger(ElasticsearchReporter.class);
 	private int esMajorVersion;
-	private List<Node> nodes;
+	private NodePool nodes;
 	private HttpSender httpSender;
 	private Clock clock;
 	private final DateTimeFormatter dtf;
-	private AtomicInteger next = new AtomicInteger();
 	private String localHost;
 
-	private ElasticsearchReporter(MetricRegistry registry, int esMajorVersion,
-			List<Node> nodes, HttpSender httpSender, String localHost) {
-		super(registry, "es-reporter");
-		this.esMajorVersion = esMajorVersion;
-		this.nodes = nodes;
-		this.httpSender = httpSender;
-		this.clock = registry.getClock();
+	private final BulkDispatcher dispatcher;
+	private final JsonWriter writer = new JsonWriter(64 * 1024);
+	/** The day of the current indices, the caches below are valid for it. */
+	private String day;
+	private byte[] meterAction;
+	private byte[] timerAction;
+	private byte[] counterAction;
+	private byte[] gaugeAction;
+	private final Map<MetricId, DocumentPrefix> prefixes = new HashMap<MetricId, DocumentPrefix>();
+
+	private ElasticsearchReporter(Builder builder) {
+		super(builder.registry, "es-reporter");
+		this.esMajorVersion = builder.esMajorVersion;
+		this.httpSender = builder.httpSender;
+		this.clock = builder.registry.getClock();
+		this.nodes = new NodePool(builder.esNodes, clock);
 		this.dtf = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
-		this.localHost = localHost;
+		this.localHost = builder.localHost;
 		if (StringUtil.isEmpty(this.localHost)) {
 			this.localHost = IPUtil.getLocalHost().orElse("127.0.0.1");
 		}
+		skipIdleMetrics(builder.heartbeatIntervals);
+		this.dispatcher = new BulkDispatcher(httpSender, nodes, builder.maxRetries, builder.maxInFlightRequests,
+				builder.overflowPolicy, builder.maxCoalescedBytes, builder.registry);
+		if (builder.compression != null) {
+			dispatcher.compress(builder.compression, builder.compressionLevel,
+					builder.compressionThreshold);
+		}
+		if (builder.spoolDirectory != null) {
+			try {
+				dispatcher.spool(builder.spoolDirectory, builder.spoolMaxBytes,
+						builder.spoolMaxAgeMillis, builder.replayPerReport);
+			} catch (IOException e) {
+				logger.error("Open spool {} error, failed requests will not be spooled.",
+						builder.spoolDirectory, e);
+			}
+		}
 		createTemplate();
 	}
 
@@ -161,8 +328,13 @@ public class ElasticsearchReporter extends ScheduledReporter {
 			return;
 		}
 
+		NodeState node = nodes.next();
+		if (node == null) {
+			logger.warn("All es nodes are cooling down, metrics template not created.");
+			return;
+		}
 		try {
-			httpSender.post(templateUrl())
+			httpSender.post(node.templateUrl)
 					  .content("application/json", template)
 					  .send()
 					  .onSuccess(response -> {
@@ -181,130 +353,156 @@ public class ElasticsearchReporter extends ScheduledReporter {
 	}
 
 	@Override
-	public void report(Map<String, Meter> meterMap, Map<String, Timer> timerMap) {
+	public void report(Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+		report(clock.getTime(), meterMap, timerMap);
+	}
 
-		String timestamp = ZonedDateTime
-				.ofInstant(Instant.ofEpochMilli(clock.getTime()), ZoneId.systemDefault())
-				.format(dtf);
+	@Override
+	public void report(long time, Map<MetricId, Meter> meterMap, Map<MetricId, Timer> timerMap) {
+		report(RegistrySnapshot.of(time, meterMap, timerMap));
+	}
 
-		StringBuilder builder = new StringBuilder();
+	/**
+	 * Writes the bulk request into a buffer kept across reports. Only the
+	 * metric values and the timestamp are formatted per report, action lines
+	 * and the name and tags of each metric are encoded once a day. The
+	 * documents are timestamped with the scheduled tick, so every host
+	 * reports the same instants. The request is sent asynchronously, see
+	 * {@link BulkDispatcher}.
+	 */
+	@Override
+	public synchronized void report(RegistrySnapshot snapshot) {
 
-		if (!meterMap.isEmpty()) {
-			builder.append(format(meterMap, timestamp, new MeterFormatter()));
+		String timestamp = ZonedDateTime
+				.ofInstant(Instant.ofEpochMilli(snapshot.getTimestamp()), ZoneId.systemDefault())
+				.format(dtf);
+		rollover(timestamp.substring(0, 10));
+		byte[] common = commonFields(timestamp);
+
+		writer.reset();
+		Section meters = snapshot.meters();
+		for (int i = 0; i < meters.size(); i++) {
+			if (isReported(meters.idleSamples(i))) {
+				writeDocument(meterAction, meters.id(i), common);
+				formatMeter(meters, i);
+				writer.raw('}').raw('\n');
+			}
 		}
-
-		if (!timerMap.isEmpty()) {
-			builder.append(format(timerMap, timestamp, new TimerFormatter()));
+		Section timers = snapshot.timers();
+		for (int i = 0; i < timers.size(); i++) {
+			if (isReported(timers.idleSamples(i))) {
+				writeDocument(timerAction, timers.id(i), common);
+				formatTimer(timers, i);
+				writer.raw('}').raw('\n');
+			}
 		}
-
-		try {
-			httpSender.post(bulkUrl())
-					  .content("application/json", builder.toString())
-					  .send()
-					  .onSuccess(response -> {
-						  logger.debug(
-								"Send to es success,response code {},response body {}",
-								response.code(), response.body());
-					  })
-					  .onError(response -> {
-						  logger.error("Send to es error,response code {},response body",
-								response.code(), response.body());
-					  });
-		} catch (Throwable e) {
-			logger.error("Send metrics to es error", e);
+		Section counters = snapshot.counters();
+		for (int i = 0; i < counters.size(); i++) {
+			writeDocument(counterAction, counters.id(i), common);
+			writer.raw(",\"count\":").number(counters.count(i)).raw('}').raw('\n');
+		}
+		Section gauges = snapshot.gauges();
+		for (int i = 0; i < gauges.size(); i++) {
+			writeDocument(gaugeAction, gauges.id(i), common);
+			writer.raw(",\"value\":").number(gauges.value(i)).raw('}').raw('\n');
+		}
+		if (writer.size() > 0) {
+			dispatcher.dispatch(writer.toByteArray());
 		}
 	}
 
-	private String formatJson(String val) {
-		return String.format("\"%s\"", val);
-	}
-	
-	private String formatJson(double val) {
-		return String.format("%10.2f", val).trim();
-	}
-
-	private <T> String getIndexName(String timestamp, T t) {
-		String date = timestamp.substring(0, 10);
-		return "metrics-" + t.getClass().getSimpleName().toLowerCase() +"-"+ date;
-	}
-
-	private String bulkUrl() {
-		Node node = nextNode();
-		return "http://" + node.getIp() + ":" + node.getPort() + "/_bulk";
-	}
-
-	private String templateUrl() {
-		Node node = nextNode();
-		return "http://" + node.getIp() + ":" + node.getPort() + "/_template/metrics";
+	/**
+	 * Rebuilds the action lines for the indices of {@code date} and drops the
+	 * cached prefixes, which also forgets metrics removed since.
+	 */
+	private void rollover(String date) {
+		if (date.equals(day)) {
+			return;
+		}
+		day = date;
+		meterAction = actionLine("metrics-meter-" + date);
+		timerAction = actionLine("metrics-timer-" + date);
+		counterAction = actionLine("metrics-counter-" + date);
+		gaugeAction = actionLine("metrics-gauge-" + date);
+		prefixes.clear();
 	}
 
-	private Node nextNode() {
-		if (nodes.isEmpty()) {
-			logger.warn("No es node,use localhost:9200.");
-			return new Node("localhost", 9200);
+	private byte[] actionLine(String index) {
+		JsonWriter line = new JsonWriter(128);
+		line.raw("{\"index\":{\"_index\":").string(index);
+		if (esMajorVersion < 7) {
+			line.raw(",\"_type\":\"_doc\"");
 		}
-		return nodes.get(next.getAndIncrement() % nodes.size());
+		return line.raw("}}\n").toByteArray();
 	}
 
-	private <T> String format(Map<String, T> map, String timestamp,
-			Formatter<T> formatter) {
-		
-		StringBuilder builder = new StringBuilder();
-		for (Map.Entry<String, T> entry : map.entrySet()) {
-			builder.append("{\"index\":")
-					.append("{\"_index\":")
-					.append(formatJson(getIndexName(timestamp, entry.getValue())));
-			if (esMajorVersion < 7) {
-				builder.append(",").append("\"_type\":\"_doc\"");
-			}
-			builder.append("}").append("}\n");
+	private byte[] commonFields(String timestamp) {
+		return new JsonWriter(128)
+				.raw(",\"@timestamp\":").string(timestamp)
+				.raw(",\"host\":").string(localHost)
+				.toByteArray();
+	}
 
-			builder.append("{").append("\"name\":").append(formatJson(entry.getKey()))
-				   .append(",").append("\"@timestamp\":").append(formatJson(timestamp))
-				   .append(",").append("\"host\":").append(formatJson(localHost));
-			
-			formatter.format(builder, entry.getValue());
-			builder.append("}\n");
+	private void writeDocument(byte[] action, MetricId id, byte[] common) {
+		DocumentPrefix prefix = prefixes.get(id);
+		if (prefix == null) {
+			prefix = new DocumentPrefix(id);
+			prefixes.put(id, prefix);
 		}
-		return builder.toString();
+		writer.raw(action).raw(prefix.name).raw(common).raw(prefix.tags);
 	}
 
-	private interface Formatter<T> {
-		void format(StringBuilder builder, T t);
-	}
+	/**
+	 * The encoded name and tags of a metric. The tags are written as a
+	 * {@code tags} object, mapped to keyword fields by the metrics template so
+	 * they can be aggregated on.
+	 */
+	private static final class DocumentPrefix {
+		private static final byte[] NO_TAGS = new byte[0];
 
-	private class MeterFormatter implements Formatter<Meter> {
+		final byte[] name;
+		final byte[] tags;
 
-		@Override
-		public void format(StringBuilder builder, Meter meter) {
-			builder.append(",\"count\":").append(meter.getCount())
-			.append(",\"rate\":").append(meter.getRate())
-			.append(",\"meanRate\":").append(formatJson(meter.getMeanRate()))
-			.append(",\"m1Rate\":").append(formatJson(meter.getOneMinuteRate()))
-			.append(",\"m5Rate\":").append(formatJson(meter.getFiveMinuteRate()))
-			.append(",\"m15Rate\":").append(formatJson(meter.getFifteenMinuteRate()));
+		DocumentPrefix(MetricId id) {
+			this.name = new JsonWriter(64).raw("{\"name\":").string(id.getName()).toByteArray();
+			if (id.getTagCount() == 0) {
+				this.tags = NO_TAGS;
+				return;
+			}
+			JsonWriter tags = new JsonWriter(64).raw(",\"tags\":{");
+			for (int i = 0; i < id.getTagCount(); i++) {
+				if (i > 0) {
+					tags.raw(',');
+				}
+				tags.string(id.getTagKey(i)).raw(':').string(id.getTagValue(i));
+			}
+			this.tags = tags.raw('}').toByteArray();
 		}
 	}
 
-	private class TimerFormatter implements Formatter<Timer> {
+	private void formatMeter(Section meters, int i) {
+		writer.raw(",\"count\":").number(meters.count(i))
+			  .raw(",\"rate\":").number(meters.rate(i))
+			  .raw(",\"meanRate\":").number(meters.meanRate(i))
+			  .raw(",\"m1Rate\":").number(meters.oneMinuteRate(i))
+			  .raw(",\"m5Rate\":").number(meters.fiveMinuteRate(i))
+			  .raw(",\"m15Rate\":").number(meters.fifteenMinuteRate(i));
+	}
 
-		@Override
-		public void format(StringBuilder builder, Timer timer) {
-			Snapshot snapshot=timer.getSnapshot();
-			builder.append(",\"count\":").append(timer.getCount())
-			.append(",\"rate\":").append(timer.getRate())
-			.append(",\"meanRate\":").append(formatJson(timer.getMeanRate()))
-			.append(",\"m1Rate\":").append(formatJson(timer.getOneMinuteRate()))
-			.append(",\"m5Rate\":").append(formatJson(timer.getFiveMinuteRate()))
-			.append(",\"m15Rate\":").append(formatJson(timer.getFifteenMinuteRate()))
-			.append(",\"max\":").append(timer.getMax())
-			.append(",\"min\":").append(timer.getMin())
-			.append(",\"avg\":").append(formatJson(timer.getAvg()))
-			.append(",\"p75\":").append(formatJson(snapshot.get75thPercentile()))
-			.append(",\"p95\":").append(formatJson(snapshot.get95thPercentile()))
-			.append(",\"p98\":").append(formatJson(snapshot.get98thPercentile()))
-			.append(",\"p99\":").append(formatJson(snapshot.get99thPercentile()))
-			.append(",\"p999\":").append(formatJson(snapshot.get999thPercentile()));
-		}
+	private void formatTimer(Section timers, int i) {
+		writer.raw(",\"count\":").number(timers.count(i))
+			  .raw(",\"rate\":").number(timers.rate(i))
+			  .raw(",\"meanRate\":").number(timers.meanRate(i))
+			  .raw(",\"m1Rate\":").number(timers.oneMinuteRate(i))
+			  .raw(",\"m5Rate\":").number(timers.fiveMinuteRate(i))
+			  .raw(",\"m15Rate\":").number(timers.fifteenMinuteRate(i))
+			  .raw(",\"max\":").number(timers.max(i))
+			  .raw(",\"min\":").number(timers.min(i))
+			  .raw(",\"avg\":").number(timers.avg(i))
+			  .raw(",\"p75\":").number(timers.percentile(i, RegistrySnapshot.P75))
+			  .raw(",\"p95\":").number(timers.percentile(i, RegistrySnapshot.P95))
+			  .raw(",\"p98\":").number(timers.percentile(i, RegistrySnapshot.P98))
+			  .raw(",\"p99\":").number(timers.percentile(i, RegistrySnapshot.P99))
+			  .raw(",\"p999\":").number(timers.percentile(i, RegistrySnapshot.P999));
 	}
 }
@@ -0,0 +1,198 @@
+package org.metrics.elasticsearch.reporter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Writes JSON straight into a growable UTF-8 byte buffer. The buffer is kept
+ * across {@link #reset()} calls, so a writer reused for every report only
+ * allocates while the payload grows.
+ */
+final class JsonWriter {
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+	/** Above this, {@code value * 100} no longer fits a long exactly. */
+	private static final double MAX_FAST_DOUBLE = 1e15;
+
+	private byte[] buffer;
+	private int size;
+
+	JsonWriter(int capacity) {
+		this.buffer = new byte[capacity];
+	}
+
+	void reset() {
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	JsonWriter raw(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, size, bytes.length);
+		size += bytes.length;
+		return this;
+	}
+
+	/**
+	 * Writes an ASCII character, e.g. a structural character.
+	 */
+	JsonWriter raw(char c) {
+		ensure(1);
+		buffer[size++] = (byte) c;
+		return this;
+	}
+
+	/**
+	 * Writes ASCII text as is, e.g. a field name with its quotes and colon.
+	 */
+	JsonWriter raw(String ascii) {
+		int length = ascii.length();
+		ensure(length);
+		for (int i = 0; i < length; i++) {
+			buffer[size++] = (byte) ascii.charAt(i);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a quoted string, escaping quotes, backslashes and control
+	 * characters and encoding the rest as UTF-8.
+	 */
+	JsonWriter string(String value) {
+		int length = value.length();
+		ensure(length + 2);
+		buffer[size++] = '"';
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+				ensure(1);
+				buffer[size++] = (byte) c;
+			} else if (c < 0x80) {
+				escape(c);
+			} else if (c < 0x800) {
+				ensure(2);
+				buffer[size++] = (byte) (0xc0 | (c >> 6));
+				buffer[size++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				ensure(4);
+				buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+				buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				ensure(1);
+				buffer[size++] = '?';
+			} else {
+				ensure(3);
+				buffer[size++] = (byte) (0xe0 | (c >> 12));
+				buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[size++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		ensure(1);
+		buffer[size++] = '"';
+		return this;
+	}
+
+	private void escape(char c) {
+		ensure(6);
+		buffer[size++] = '\\';
+		switch (c) {
+		case '"':
+		case '\\':
+			buffer[size++] = (byte) c;
+			break;
+		case '\n':
+			buffer[size++] = 'n';
+			break;
+		case '\r':
+			buffer[size++] = 'r';
+			break;
+		case '\t':
+			buffer[size++] = 't';
+			break;
+		case '\b':
+			buffer[size++] = 'b';
+			break;
+		case '\f':
+			buffer[size++] = 'f';
+			break;
+		default:
+			buffer[size++] = 'u';
+			buffer[size++] = '0';
+			buffer[size++] = '0';
+			buffer[size++] = HEX[c >> 4];
+			buffer[size++] = HEX[c & 0xf];
+		}
+	}
+
+	JsonWriter number(long value) {
+		if (value == Long.MIN_VALUE) {
+			return raw(Long.toString(value));
+		}
+		ensure(20);
+		if (value < 0) {
+			buffer[size++] = '-';
+			value = -value;
+		}
+		int end = size + digits(value);
+		size = end;
+		do {
+			buffer[--end] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		return this;
+	}
+
+	/**
+	 * Writes {@code value} rounded half up to two decimals, or {@code null}
+	 * for NaN and infinities, which JSON cannot represent.
+	 */
+	JsonWriter number(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return raw(NULL);
+		}
+		if (Math.abs(value) >= MAX_FAST_DOUBLE) {
+			return raw(new BigDecimal(value).setScale(2, RoundingMode.HALF_UP).toPlainString());
+		}
+		long scaled = Math.round(Math.abs(value) * 100);
+		if (value < 0 && scaled != 0) {
+			raw('-');
+		}
+		number(scaled / 100);
+		ensure(3);
+		long fraction = scaled % 100;
+		buffer[size++] = '.';
+		buffer[size++] = (byte) ('0' + fraction / 10);
+		buffer[size++] = (byte) ('0' + fraction % 10);
+		return this;
+	}
+
+	private static int digits(long value) {
+		long limit = 10;
+		for (int digits = 1; digits < 19; digits++) {
+			if (value < limit) {
+				return digits;
+			}
+			limit *= 10;
+		}
+		return 19;
+	}
+
+	private void ensure(int length) {
+		if (size + length > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+		}
+	}
+}
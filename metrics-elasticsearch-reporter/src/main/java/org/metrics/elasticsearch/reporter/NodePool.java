@@ -0,0 +1,85 @@
+package org.metrics.elasticsearch.reporter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Round-robins over the Elasticsearch nodes, skipping nodes that recently
+ * failed. A failed node cools down for one second, doubling with every
+ * consecutive failure up to a minute. Once its cooldown is over it is
+ * offered again, and the next request to it probes whether it recovered.
+ */
+final class NodePool {
+
+	private static final Logger logger = LoggerFactory.getLogger(NodePool.class);
+	private static final long MIN_COOLDOWN_MILLIS = 1000;
+	private static final long MAX_COOLDOWN_MILLIS = 60000;
+	/** Bulk responses only carry what retrying rejected documents needs. */
+	private static final String BULK_PATH = "/_bulk?filter_path=errors,items.*.status";
+
+	private final NodeState[] nodes;
+	private final Clock clock;
+	private final AtomicInteger next = new AtomicInteger();
+
+	NodePool(List<Node> nodes, Clock clock) {
+		if (nodes.isEmpty()) {
+			logger.warn("No es node,use localhost:9200.");
+			this.nodes = new NodeState[] { new NodeState(new Node("localhost", 9200)) };
+		} else {
+			this.nodes = new NodeState[nodes.size()];
+			for (int i = 0; i < nodes.size(); i++) {
+				this.nodes[i] = new NodeState(nodes.get(i));
+			}
+		}
+		this.clock = clock;
+	}
+
+	/**
+	 * @return the next node that is not cooling down, or {@code null} if all
+	 *         of them are
+	 */
+	NodeState next() {
+		long now = clock.getTime();
+		int start = Math.floorMod(next.getAndIncrement(), nodes.length);
+		for (int i = 0; i < nodes.length; i++) {
+			NodeState node = nodes[(start + i) % nodes.length];
+			if (node.retryAt <= now) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	final class NodeState {
+		private final Node node;
+		final String bulkUrl;
+		final String templateUrl;
+		private int failures;
+		private volatile long retryAt;
+
+		private NodeState(Node node) {
+			this.node = node;
+			String base = "http://" + node.getIp() + ":" + node.getPort();
+			this.bulkUrl = base + BULK_PATH;
+			this.templateUrl = base + "/_template/metrics";
+		}
+
+		synchronized void succeeded() {
+			failures = 0;
+			retryAt = 0;
+		}
+
+		synchronized void failed() {
+			failures++;
+			long cooldown = Math.min(MAX_COOLDOWN_MILLIS, MIN_COOLDOWN_MILLIS << Math.min(failures - 1, 16));
+			retryAt = clock.getTime() + cooldown;
+			logger.warn("{} failed {} times in a row, retrying it in {} ms.", node, failures, cooldown);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package org.metrics.elasticsearch.reporter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.metric.transport.http.HttpSender;
+import org.metric.transport.http.HttpSender.Compression;
+import org.metrics.core.MetricId;
+import org.metrics.core.MetricRegistry;
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter.Node;
+import org.metrics.elasticsearch.reporter.ElasticsearchReporter.OverflowPolicy;
+import org.metrics.util.StringUtil;
+
+import com.codahale.metrics.Clock;
+
+public class BulkDispatcherTest {
+
+	/**
+	 * Keeps every request outstanding until the test completes it.
+	 */
+	private static class PendingSender implements HttpSender {
+		private final List<String> urls = new ArrayList<>();
+		private final List<String> bodies = new ArrayList<>();
+		private final List<String> encodings = new ArrayList<>();
+		private final List<CompletableFuture<Response>> futures = new ArrayList<>();
+
+		@Override
+		public Response send(Request request) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CompletableFuture<Response> sendAsync(Request request) {
+			urls.add(request.getUrI().getAuthority());
+			encodings.add(request.getRequestHeaders().get("Content-Encoding"));
+			bodies.add(new String(request.getEntity(), StandardCharsets.UTF_8));
+			CompletableFuture<Response> future = new CompletableFuture<>();
+			futures.add(future);
+			return future;
+		}
+
+		void complete(int index, int code) {
+			complete(index, code, StringUtil.EMPTY_STRING);
+		}
+
+		void complete(int index, int code, String body) {
+			futures.get(index).complete(new Response(code, body));
+		}
+	}
+
+	private static class ManualClock extends Clock {
+		private long millis = 1000000;
+
+		@Override
+		public long getTick() {
+			return TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+
+		@Override
+		public long getTime() {
+			return millis;
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ManualClock clock = new ManualClock();
+	private final MetricRegistry registry = new MetricRegistry(clock);
+	private final PendingSender sender = new PendingSender();
+
+	private BulkDispatcher dispatcher(OverflowPolicy policy, int maxCoalescedBytes) {
+		NodePool nodes = new NodePool(Collections.singletonList(new Node("localhost", 9200)), clock);
+		return new BulkDispatcher(sender, nodes, 0, 1, policy, maxCoalescedBytes, registry);
+	}
+
+	private BulkDispatcher retrying(Node... nodes) {
+		return new BulkDispatcher(sender, new NodePool(Arrays.asList(nodes), clock), 1, 1,
+				OverflowPolicy.DROP, 1024, registry);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private long count(String outcome) {
+		return registry.meter(MetricId.of("es.reporter.bulk", "outcome", outcome)).getCount();
+	}
+
+	@Test
+	public void dropTest() {
+		BulkDispatcher dispatcher = dispatcher(OverflowPolicy.DROP, 1024);
+		dispatcher.dispatch(bytes("a\n"));
+		dispatcher.dispatch(bytes("b\n"));
+		sender.complete(0, 200);
+		dispatcher.dispatch(bytes("c\n"));
+		sender.complete(1, 500);
+
+		assertEquals(2, sender.bodies.size());
+		assertEquals("c\n", sender.bodies.get(1));
+		assertEquals(1, count("sent"));
+		assertEquals(1, count("failed"));
+		assertEquals(1, count("dropped"));
+	}
+
+	@Test
+	public void coalesceTest() {
+		BulkDispatcher dispatcher = dispatcher(OverflowPolicy.COALESCE, 1024);
+		dispatcher.dispatch(bytes("a\n"));
+		dispatcher.dispatch(bytes("b\n"));
+		dispatcher.dispatch(bytes("c\n"));
+		assertEquals(1, sender.bodies.size());
+
+		sender.complete(0, 200);
+		assertEquals(2, sender.bodies.size());
+		assertEquals("b\nc\n", sender.bodies.get(1));
+		assertEquals(1, count("coalesced"));
+	}
+
+	@Test
+	public void coalesceLimitTest() {
+		BulkDispatcher dispatcher = dispatcher(OverflowPolicy.COALESCE, 4);
+		dispatcher.dispatch(bytes("a\n"));
+		dispatcher.dispatch(bytes("b\n"));
+		dispatcher.dispatch(bytes("c\n"));
+		dispatcher.dispatch(bytes("d\n"));
+		sender.complete(0, 200);
+
+		assertEquals("d\n", sender.bodies.get(1));
+		assertEquals(1, count("coalesced"));
+		assertEquals(1, count("dropped"));
+	}
+
+	@Test
+	public void spoolReplayTest() throws IOException {
+		BulkDispatcher dispatcher = dispatcher(OverflowPolicy.DROP, 1024);
+		dispatcher.spool(folder.getRoot().toPath(), 1 << 20, 60000, 2);
+		dispatcher.dispatch(bytes("a\n"));
+		sender.complete(0, 503);
+		clock.millis += 1000;
+		dispatcher.dispatch(bytes("b\n"));
+		sender.complete(1, 503);
+		assertEquals(2, count("spooled"));
+		clock.millis += 2000;
+
+		dispatcher.dispatch(bytes("c\n"));
+		sender.complete(2, 200);
+		assertEquals("a\n", sender.bodies.get(3));
+		sender.complete(3, 200);
+		assertEquals("b\n", sender.bodies.get(4));
+		sender.complete(4, 200);
+		assertEquals(2, count("replayed"));
+		assertEquals(5, sender.bodies.size());
+	}
+
+	@Test
+	public void rejectedKeepsReplayingTest() throws IOException {
+		BulkDispatcher dispatcher = dispatcher(OverflowPolicy.DROP, 1024);
+		dispatcher.spool(folder.getRoot().toPath(), 1 << 20, 60000, 2);
+		dispatcher.dispatch(bytes("a\n"));
+		sender.complete(0, 503);
+		clock.millis += 1000;
+
+		// the node answered, so the spool is replayed although b is lost
+		dispatcher.dispatch(bytes("b\n"));
+		sender.complete(1, 400);
+		assertEquals("a\n", sender.bodies.get(2));
+		sender.complete(2, 400);
+		assertEquals(1, count("spooled"));
+		assertEquals(0, count("replayed"));
+		assertEquals(3, sender.bodies.size());
+
+		dispatcher.dispatch(bytes("c\n"));
+		sender.complete(3, 200);
+		assertEquals(4, sender.bodies.size());
+	}
+
+	@Test
+	public void retryNextNodeTest() {
+		BulkDispatcher dispatcher = retrying(new Node("es1", 9200), new Node("es2", 9200));
+		dispatcher.dispatch(bytes("a\n"));
+		sender.complete(0, 503);
+		assertEquals("es2:9200", sender.urls.get(1));
+		assertEquals("a\n", sender.bodies.get(1));
+		sender.complete(1, 200);
+
+		dispatcher.dispatch(bytes("b\n"));
+		assertEquals("es2:9200", sender.urls.get(2));
+		assertEquals(1, count("retried"));
+		assertEquals(1, count("sent"));
+	}
+
+	@Test
+	public void cooldownTest() {
+		BulkDispatcher dispatcher = retrying(new Node("es1", 9200));
+		dispatcher.dispatch(bytes("a\n"));
+		sender.complete(0, 503);
+		dispatcher.dispatch(bytes("b\n"));
+		assertEquals(1, sender.bodies.size());
+		assertEquals(3, count("failed"));
+
+		clock.millis += 1000;
+		dispatcher.dispatch(bytes("c\n"));
+		sender.complete(1, 503);
+		clock.millis += 1000;
+		dispatcher.dispatch(bytes("d\n"));
+		assertEquals(2, sender.bodies.size());
+		clock.millis += 1000;
+		dispatcher.dispatch(bytes("e\n"));
+		assertEquals(3, sender.bodies.size());
+	}
+
+	@Test
+	public void partialRetryTest() {
+		BulkDispatcher dispatcher = retrying(new Node("es1", 9200));
+		dispatcher.dispatch(bytes("{\"index\":{}}\n{\"v\":1}\n{\"index\":{}}\n{\"v\":2}\n"
+				+ "{\"index\":{}}\n{\"v\":3}\n"));
+		sender.complete(0, 200, "{\"errors\":true,\"items\":[{\"index\":{\"status\":201}},"
+				+ "{\"index\":{\"status\":429}},{\"index\":{\"status\":400}}]}");
+
+		assertEquals("{\"index\":{}}\n{\"v\":2}\n", sender.bodies.get(1));
+		assertEquals(1, count("rejected"));
+		sender.complete(1, 200, "{\"errors\":false}");
+		assertEquals(1, count("sent"));
+	}
+
+	@Test
+	public void mismatchedItemsTest() {
+		BulkDispatcher dispatcher = retrying(new Node("es1", 9200));
+		String payload = "{\"index\":{}}\n{\"v\":1}\n{\"index\":{}}\n{\"v\":2}\n";
+		dispatcher.dispatch(bytes(payload));
+		sender.complete(0, 200, "{\"errors\":true,\"items\":[{\"index\":{\"status\":429}}]}");
+
+		assertEquals(payload, sender.bodies.get(1));
+		assertEquals(1, count("failed"));
+		assertEquals(0, count("sent"));
+		sender.complete(1, 200, "{\"errors\":false}");
+		assertEquals(1, count("sent"));
+	}
+
+	@Test
+	public void compressionThresholdTest() {
+		BulkDispatcher dispatcher = dispatcher(OverflowPolicy.DROP, 1024);
+		dispatcher.compress(Compression.GZIP, 1, 4);
+		dispatcher.dispatch(bytes("a\n"));
+		sender.complete(0, 200);
+		dispatcher.dispatch(bytes("a\nb\n"));
+
+		assertEquals(null, sender.encodings.get(0));
+		assertEquals("gzip", sender.encodings.get(1));
+	}
+}
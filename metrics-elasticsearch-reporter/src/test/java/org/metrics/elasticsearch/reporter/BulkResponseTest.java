@@ -0,0 +1,29 @@
+package org.metrics.elasticsearch.reporter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class BulkResponseTest {
+
+	@Test
+	public void itemStatusesTest() {
+		assertNull(BulkResponse.itemStatuses("{\"errors\":false}"));
+		assertArrayEquals(new int[] { 201, 429, 400 }, BulkResponse.itemStatuses(
+				"{\"took\":3, \"errors\" : true, \"items\":[{\"index\":{\"status\":201}},"
+						+ "{\"index\":{\"status\":429,\"error\":{\"reason\":\"queue \\\"full\\\"\",\"status\":1}}},"
+						+ "{\"create\":{\"_id\":\"]}\",\"status\": 400}}]}"));
+	}
+
+	@Test
+	public void documentsTest() {
+		byte[] payload = "a1\na2\nb1\nb2\nc1\nc2\n".getBytes(StandardCharsets.UTF_8);
+		int[] statuses = { 201, 503, 429 };
+		assertArrayEquals("b1\nb2\nc1\nc2\n".getBytes(StandardCharsets.UTF_8),
+				BulkResponse.documents(payload, statuses, status -> status >= 429));
+		assertNull(BulkResponse.documents(payload, new int[] { 201, 503 }, status -> true));
+	}
+}
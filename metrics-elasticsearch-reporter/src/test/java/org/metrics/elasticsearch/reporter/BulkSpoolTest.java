@@ -0,0 +1,123 @@
+package org.metrics.elasticsearch.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.metrics.core.Meter;
+
+import com.codahale.metrics.Clock;
+
+public class BulkSpoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ManualClock clock = new ManualClock();
+	private final Meter dropped = new Meter(clock);
+	private final Meter expired = new Meter(clock);
+
+	private static class ManualClock extends Clock {
+		private long millis = 1000;
+
+		@Override
+		public long getTick() {
+			return TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+
+		@Override
+		public long getTime() {
+			return millis;
+		}
+	}
+
+	private BulkSpool spool(Path directory, long maxBytes, int segmentBytes) throws IOException {
+		return new BulkSpool(directory, maxBytes, 60000, segmentBytes, clock, dropped, expired);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String take(BulkSpool spool) {
+		BulkSpool.Record record = spool.peek();
+		if (record == null) {
+			return null;
+		}
+		spool.remove(record);
+		return new String(record.payload, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void orderTest() throws IOException {
+		BulkSpool spool = spool(folder.getRoot().toPath(), 1 << 20, 64);
+		for (int i = 0; i < 10; i++) {
+			spool.append(bytes("payload-" + i));
+		}
+		assertEquals("payload-0", new String(spool.peek().payload, StandardCharsets.UTF_8));
+		for (int i = 0; i < 10; i++) {
+			assertEquals("payload-" + i, take(spool));
+		}
+		assertNull(spool.peek());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void reopenTest() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		BulkSpool spool = spool(directory, 1 << 20, 64);
+		for (int i = 0; i < 5; i++) {
+			spool.append(bytes("payload-" + i));
+		}
+		take(spool);
+
+		spool = spool(directory, 1 << 20, 64);
+		spool.append(bytes("payload-5"));
+		for (int i = 1; i < 6; i++) {
+			assertEquals("payload-" + i, take(spool));
+		}
+		assertNull(take(spool));
+	}
+
+	@Test
+	public void maxBytesTest() throws IOException {
+		BulkSpool spool = spool(folder.getRoot().toPath(), 100, 40);
+		for (int i = 0; i < 10; i++) {
+			spool.append(bytes("payload-" + i));
+		}
+		assertEquals(8, dropped.getCount());
+		assertEquals("payload-8", take(spool));
+	}
+
+	@Test
+	public void oversizedTest() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		BulkSpool spool = spool(directory, 100, 1024);
+		spool.append(bytes("small"));
+		spool.append(new byte[100]);
+		assertEquals(1, dropped.getCount());
+		// segments are capped to the spool size
+		assertEquals(100, Files.size(directory.resolve(folder.getRoot().list()[0])));
+		assertEquals("small", take(spool));
+	}
+
+	@Test
+	public void maxAgeTest() throws IOException {
+		BulkSpool spool = spool(folder.getRoot().toPath(), 1 << 20, 1024);
+		spool.append(bytes("old"));
+		clock.millis += 50000;
+		spool.append(bytes("new"));
+		clock.millis += 20000;
+
+		assertEquals("new", take(spool));
+		assertEquals(1, expired.getCount());
+	}
+}
@@ -0,0 +1,43 @@
+package org.metrics.elasticsearch.reporter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+	private static String write(JsonWriter writer) {
+		return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void stringTest() {
+		String value = "a\"b\\c\nd\u0001é中😀";
+		assertEquals("\"a\\\"b\\\\c\\nd\\u0001é中😀\"", write(new JsonWriter(4).string(value)));
+	}
+
+	@Test
+	public void longTest() {
+		long[] values = { 0, 7, -7, 10, 99, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE };
+		for (long value : values) {
+			assertEquals(Long.toString(value), write(new JsonWriter(1).number(value)));
+		}
+	}
+
+	@Test
+	public void doubleTest() {
+		double[] values = { 0, 1.5, -1.5, 0.125, 2.675, 1234.005, 99.999, -0.001, 123456789.87, 1e17 };
+		for (double value : values) {
+			String expected = String.format(Locale.ROOT, "%.2f", value);
+			if (expected.equals("-0.00")) {
+				expected = "0.00";
+			}
+			assertEquals(expected, write(new JsonWriter(1).number(value)));
+		}
+		assertEquals("null", write(new JsonWriter(1).number(Double.NaN)));
+		assertEquals("null", write(new JsonWriter(1).number(Double.POSITIVE_INFINITY)));
+	}
+}
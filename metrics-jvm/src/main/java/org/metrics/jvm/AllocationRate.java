@@ -0,0 +1,55 @@
+package org.metrics.jvm;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.metrics.core.Gauge;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Bytes allocated per second by all threads since the previous read. The JVM
+ * only counts allocation per live thread, so the bytes of each thread are
+ * compared with its own previous count, matched by thread id. Threads that
+ * ended in between are lost, new threads count in full.
+ */
+final class AllocationRate implements Gauge<Double> {
+
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final com.sun.management.ThreadMXBean threads;
+	private final Clock clock;
+	/** Sorted thread ids of the previous read, with their allocated bytes. */
+	private long[] lastIds = new long[0];
+	private long[] lastBytes = new long[0];
+	private long lastTick;
+
+	AllocationRate(com.sun.management.ThreadMXBean threads, Clock clock) {
+		this.threads = threads;
+		this.clock = clock;
+		this.lastTick = clock.getTick();
+	}
+
+	@Override
+	public synchronized Double getValue() {
+		long[] ids = threads.getAllThreadIds();
+		Arrays.sort(ids);
+		long[] bytes = threads.getThreadAllocatedBytes(ids);
+		long tick = clock.getTick();
+		long allocated = 0;
+		for (int i = 0; i < ids.length; i++) {
+			// -1 for threads that ended since their id was read
+			if (bytes[i] < 0) {
+				continue;
+			}
+			int last = Arrays.binarySearch(lastIds, ids[i]);
+			allocated += last >= 0 && lastBytes[last] >= 0 ? bytes[i] - lastBytes[last] : bytes[i];
+		}
+		boolean first = lastIds.length == 0;
+		double elapsed = (tick - lastTick) / NANOS_PER_SECOND;
+		lastIds = ids;
+		lastBytes = bytes;
+		lastTick = tick;
+		return first || elapsed <= 0 ? 0.0 : allocated / elapsed;
+	}
+}
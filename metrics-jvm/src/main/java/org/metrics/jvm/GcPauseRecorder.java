@@ -0,0 +1,117 @@
+package org.metrics.jvm;
+
+import java.io.Closeable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.metrics.core.HdrReservoir;
+import org.metrics.core.MetricId;
+import org.metrics.core.MetricRegistry;
+import org.metrics.core.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Records the duration of every collection pause into a {@code jvm.gc.pause}
+ * timer tagged by {@code collector} and {@code cause}, from the notifications
+ * the collectors send. Unlike the counts polled by {@link JvmMetrics}, the
+ * timers keep single long pauses visible as the max and p99 of their
+ * interval, and are reported with the other timers.
+ *
+ * <p>
+ * Concurrent collectors such as ZGC and Shenandoah also notify the end of
+ * their concurrent cycles, which run next to the application and can last
+ * seconds. Those are recorded into {@code jvm.gc.concurrent} with the same
+ * tags, so they do not inflate the pauses. The remark and cleanup pauses G1
+ * reports under {@code G1 Concurrent GC} do stop the application and count
+ * as pauses.
+ */
+public final class GcPauseRecorder implements NotificationListener, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GcPauseRecorder.class);
+	private static final String PAUSE = "jvm.gc.pause";
+	private static final String CONCURRENT = "jvm.gc.concurrent";
+	/** The action of the notifications of a concurrent cycle rather than a pause. */
+	private static final String CYCLE_ACTION = "end of GC cycle";
+
+	private final MetricRegistry registry;
+	private final List<NotificationEmitter> emitters = new ArrayList<>();
+	/** Timers by collector and cause, so a notification does not build an id. */
+	private final Map<String, Map<String, Timer>> pauses = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, Timer>> cycles = new ConcurrentHashMap<>();
+
+	private GcPauseRecorder(MetricRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Starts recording the collections of every collector that sends
+	 * notifications, until {@link #close()}.
+	 */
+	public static GcPauseRecorder register(MetricRegistry registry) {
+		GcPauseRecorder recorder = new GcPauseRecorder(registry);
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				NotificationEmitter emitter = (NotificationEmitter) gc;
+				emitter.addNotificationListener(recorder, null, null);
+				recorder.emitters.add(emitter);
+			}
+		}
+		return recorder;
+	}
+
+	/**
+	 * Runs on the JVM's notification thread, which also serves other
+	 * listeners, so it only records the duration.
+	 */
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+			return;
+		}
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+				.from((CompositeData) notification.getUserData());
+		record(info.getGcName(), info.getGcAction(), info.getGcCause(), info.getGcInfo().getDuration());
+	}
+
+	void record(String collector, String action, String cause, long millis) {
+		Timer timer = CYCLE_ACTION.equals(action) ? timer(cycles, CONCURRENT, collector, cause)
+				: timer(pauses, PAUSE, collector, cause);
+		timer.update(millis, TimeUnit.MILLISECONDS);
+	}
+
+	private Timer timer(Map<String, Map<String, Timer>> timers, String name, String collector, String cause) {
+		Map<String, Timer> byCause = timers.computeIfAbsent(collector, key -> new ConcurrentHashMap<>());
+		Timer timer = byCause.get(cause);
+		if (timer == null) {
+			timer = byCause.computeIfAbsent(cause, key -> registry
+					.timber(MetricId.of(name, "collector", collector, "cause", cause), HdrReservoir::new));
+		}
+		return timer;
+	}
+
+	@Override
+	public void close() {
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+				LOG.debug("GC listener already removed.", e);
+			}
+		}
+		emitters.clear();
+	}
+}
@@ -0,0 +1,154 @@
+package org.metrics.jvm;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.metrics.core.CachedGauge;
+import org.metrics.core.MetricId;
+import org.metrics.core.MetricRegistry;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Gauges of the JVM the registry runs in, for GC activity, memory, buffer
+ * pools, threads and allocation to be reported next to the application's own
+ * metrics:
+ * <ul>
+ * <li>{@code jvm.gc.count} and {@code jvm.gc.time}, in milliseconds, since
+ * start, tagged by {@code collector}. For the duration of single pauses see
+ * {@link GcPauseRecorder}</li>
+ * <li>{@code jvm.memory.used}, {@code committed} and {@code max} in bytes,
+ * tagged {@code area=heap} or {@code non-heap}, and {@code jvm.memory.pool.*}
+ * tagged by {@code pool}</li>
+ * <li>{@code jvm.buffers.count}, {@code used} and {@code capacity} of the
+ * direct and mapped buffer pools</li>
+ * <li>{@code jvm.threads.count}, {@code daemon}, {@code peak}, and
+ * {@code jvm.threads.state} tagged by {@code state}</li>
+ * <li>{@code jvm.allocation.rate} in bytes per second, where the JVM measures
+ * per thread allocation</li>
+ * </ul>
+ *
+ * <p>
+ * The MXBeans are looked up once here. Gauges reading the same usage or
+ * thread dump share one read per tick through a {@link CachedGauge}, so a
+ * tick reads each bean once. The thread states take one
+ * {@link ThreadMXBean#getThreadInfo(long[], int)} without stacks, which costs
+ * in proportion to the number of threads.
+ */
+public final class JvmMetrics {
+
+	/** Long enough for the gauges of one tick to share a read, shorter than any period. */
+	private static final long SHARED_READ_MILLIS = 100;
+
+	private JvmMetrics() {
+	}
+
+	/**
+	 * Registers all JVM gauges in {@code registry}.
+	 */
+	public static void register(MetricRegistry registry) {
+		registerGarbageCollectors(registry);
+		registerMemory(registry);
+		registerBufferPools(registry);
+		registerThreads(registry);
+		registerAllocation(registry);
+	}
+
+	public static void registerGarbageCollectors(MetricRegistry registry) {
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			String collector = gc.getName();
+			registry.gauge(MetricId.of("jvm.gc.count", "collector", collector), gc::getCollectionCount);
+			registry.gauge(MetricId.of("jvm.gc.time", "collector", collector), gc::getCollectionTime);
+		}
+	}
+
+	public static void registerMemory(MetricRegistry registry) {
+		Clock clock = registry.getClock();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		registerUsage(registry, "jvm.memory", "area", "heap", shared(clock, memory::getHeapMemoryUsage));
+		registerUsage(registry, "jvm.memory", "area", "non-heap", shared(clock, memory::getNonHeapMemoryUsage));
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			registerUsage(registry, "jvm.memory.pool", "pool", pool.getName(), shared(clock, pool::getUsage));
+		}
+	}
+
+	private static void registerUsage(MetricRegistry registry, String name, String tag, String value,
+			CachedGauge<MemoryUsage> usage) {
+		registry.gauge(MetricId.of(name + ".used", tag, value), () -> usage.getValue().getUsed());
+		registry.gauge(MetricId.of(name + ".committed", tag, value), () -> usage.getValue().getCommitted());
+		// -1 when undefined, left out rather than reported as a size
+		registry.gauge(MetricId.of(name + ".max", tag, value), () -> {
+			long max = usage.getValue().getMax();
+			return max < 0 ? null : max;
+		});
+	}
+
+	public static void registerBufferPools(MetricRegistry registry) {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			String name = pool.getName();
+			registry.gauge(MetricId.of("jvm.buffers.count", "pool", name), pool::getCount);
+			registry.gauge(MetricId.of("jvm.buffers.used", "pool", name), pool::getMemoryUsed);
+			registry.gauge(MetricId.of("jvm.buffers.capacity", "pool", name), pool::getTotalCapacity);
+		}
+	}
+
+	public static void registerThreads(MetricRegistry registry) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		registry.gauge("jvm.threads.count", threads::getThreadCount);
+		registry.gauge("jvm.threads.daemon", threads::getDaemonThreadCount);
+		registry.gauge("jvm.threads.peak", threads::getPeakThreadCount);
+		CachedGauge<int[]> states = shared(registry.getClock(), () -> {
+			int[] counts = new int[Thread.State.values().length];
+			for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds(), 0)) {
+				// null for threads that ended since their id was read
+				if (info != null) {
+					counts[info.getThreadState().ordinal()]++;
+				}
+			}
+			return counts;
+		});
+		for (Thread.State state : Thread.State.values()) {
+			registry.gauge(MetricId.of("jvm.threads.state", "state", state.name()),
+					() -> states.getValue()[state.ordinal()]);
+		}
+	}
+
+	/**
+	 * Registers {@code jvm.allocation.rate} if the JVM supports measuring the
+	 * allocation of threads.
+	 *
+	 * @return whether it was registered
+	 */
+	public static boolean registerAllocation(MetricRegistry registry) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return false;
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		if (!allocation.isThreadAllocatedMemorySupported()) {
+			return false;
+		}
+		if (!allocation.isThreadAllocatedMemoryEnabled()) {
+			allocation.setThreadAllocatedMemoryEnabled(true);
+		}
+		registry.gauge("jvm.allocation.rate", new AllocationRate(allocation, registry.getClock()));
+		return true;
+	}
+
+	private static <T> CachedGauge<T> shared(Clock clock, Supplier<T> read) {
+		return new CachedGauge<T>(clock, SHARED_READ_MILLIS, TimeUnit.MILLISECONDS) {
+			@Override
+			protected T loadValue() {
+				return read.get();
+			}
+		};
+	}
+}
@@ -0,0 +1,63 @@
+package org.metrics.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.metrics.core.MetricId;
+import org.metrics.core.MetricRegistry;
+import org.metrics.core.Timer;
+
+public class GcPauseRecorderTest {
+
+	@Test
+	public void recordTest() throws InterruptedException {
+		MetricRegistry registry = new MetricRegistry();
+		long pauses = 0;
+		try (GcPauseRecorder recorder = GcPauseRecorder.register(registry)) {
+			System.gc();
+			// notifications are sent asynchronously
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pauses == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+				pauses += pauses(registry);
+			}
+		}
+		assertTrue(pauses > 0);
+		assertTrue(registry.timerMap().keySet().stream()
+				.anyMatch(id -> "System.gc()".equals(id.getTags().get("cause"))));
+	}
+
+	@Test
+	public void concurrentCycleTest() {
+		MetricRegistry registry = new MetricRegistry();
+		try (GcPauseRecorder recorder = GcPauseRecorder.register(registry)) {
+			recorder.record("ZGC Cycles", "end of GC cycle", "Allocation Rate", 2000);
+			recorder.record("ZGC Pauses", "end of GC pause", "Allocation Rate", 1);
+		}
+		Timer cycle = registry.timerMap()
+				.get(MetricId.of("jvm.gc.concurrent", "collector", "ZGC Cycles", "cause", "Allocation Rate"));
+		Timer pause = registry.timerMap()
+				.get(MetricId.of("jvm.gc.pause", "collector", "ZGC Pauses", "cause", "Allocation Rate"));
+		assertEquals(1, cycle.sample().getIntervalCount());
+		assertEquals(1, pause.sample().getIntervalCount());
+		assertTrue(registry.timerMap().keySet().stream()
+				.noneMatch(id -> id.getName().equals("jvm.gc.pause")
+						&& "ZGC Cycles".equals(id.getTags().get("collector"))));
+	}
+
+	/**
+	 * Samples the pause timers, so each pause is counted once.
+	 */
+	private static long pauses(MetricRegistry registry) {
+		long count = 0;
+		for (Map.Entry<MetricId, Timer> entry : registry.timerMap().entrySet()) {
+			if (entry.getKey().getName().equals("jvm.gc.pause")) {
+				count += entry.getValue().sample().getIntervalCount();
+			}
+		}
+		return count;
+	}
+}
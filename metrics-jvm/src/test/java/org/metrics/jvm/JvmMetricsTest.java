@@ -0,0 +1,57 @@
+package org.metrics.jvm;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.metrics.core.Gauge;
+import org.metrics.core.MetricId;
+import org.metrics.core.MetricRegistry;
+
+public class JvmMetricsTest {
+
+	@Test
+	public void registerTest() throws InterruptedException {
+		MetricRegistry registry = new MetricRegistry();
+		JvmMetrics.register(registry);
+		Map<MetricId, Gauge<?>> gauges = registry.gaugeMap();
+
+		assertTrue(value(gauges, MetricId.of("jvm.memory.used", "area", "heap")) > 0);
+		assertTrue(value(gauges, MetricId.of("jvm.threads.count")) > 0);
+		assertTrue(value(gauges, MetricId.of("jvm.threads.state", "state", "RUNNABLE")) > 0);
+		assertTrue(gauges.keySet().stream().anyMatch(id -> id.getName().equals("jvm.gc.count")));
+		assertNotNull(gauges.get(MetricId.of("jvm.buffers.used", "pool", "direct")));
+
+		Gauge<?> allocation = gauges.get(MetricId.of("jvm.allocation.rate"));
+		if (allocation != null) {
+			allocation.getValue();
+			long sum = 0;
+			for (int i = 0; i < 1000; i++) {
+				sum += new byte[1024].length;
+			}
+			Thread.sleep(10);
+			assertTrue(sum > 0 && ((Double) allocation.getValue()) > 0);
+		}
+	}
+
+	@Test
+	public void undefinedMaxTest() {
+		MetricRegistry registry = new MetricRegistry();
+		JvmMetrics.registerMemory(registry);
+		for (Map.Entry<MetricId, Gauge<?>> entry : registry.gaugeMap().entrySet()) {
+			if (entry.getKey().getName().endsWith(".max")) {
+				Object max = entry.getValue().getValue();
+				// undefined maximums are left out instead of reported as -1
+				assertTrue(max == null || ((Long) max) >= 0);
+			}
+		}
+		assertNull(registry.gaugeMap().get(MetricId.of("jvm.threads.count")));
+	}
+
+	private static double value(Map<MetricId, Gauge<?>> gauges, MetricId id) {
+		return ((Number) gauges.get(id).getValue()).doubleValue();
+	}
+}
@@ -0,0 +1,147 @@
+package org.metric.transport.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.metric.transport.http.HttpSender.Body;
+import org.metric.transport.http.HttpSender.Compression;
+
+/**
+ * A body compressed as it is written. Each {@link Deflater} holds a few
+ * hundred KB of native memory that is only freed when it is ended, so
+ * compressors are pooled per level and format instead of being created per
+ * request. Gzip header and trailer are written here around a raw deflate
+ * stream, so the same pool serves both formats.
+ */
+final class CompressedBody implements Body {
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+			(byte) 0xff };
+	private static final int MAX_IDLE = 8;
+	/** Idle compressors by level and format. */
+	private static final Map<Integer, Queue<Compressor>> IDLE = new ConcurrentHashMap<>();
+
+	private final Body body;
+	private final boolean gzip;
+	private final int level;
+
+	CompressedBody(Body body, Compression compression, int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION
+				|| level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		this.body = body;
+		this.gzip = compression == Compression.GZIP;
+		this.level = level;
+	}
+
+	@Override
+	public long contentLength() {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		Queue<Compressor> idle = IDLE.computeIfAbsent(level * 2 + (gzip ? 1 : 0),
+				key -> new ConcurrentLinkedQueue<>());
+		Compressor compressor = idle.poll();
+		if (compressor == null) {
+			compressor = new Compressor(level, gzip);
+		}
+		boolean finished = false;
+		try {
+			compressor.start(out);
+			body.writeTo(compressor);
+			compressor.finish();
+			finished = true;
+		} finally {
+			if (finished && idle.size() < MAX_IDLE) {
+				idle.offer(compressor);
+			} else {
+				compressor.end();
+			}
+		}
+	}
+
+	private static final class Compressor extends OutputStream {
+		private final Deflater deflater;
+		private final boolean gzip;
+		private final CRC32 crc = new CRC32();
+		private final byte[] buffer = new byte[8192];
+		private final byte[] single = new byte[1];
+		private OutputStream out;
+
+		Compressor(int level, boolean gzip) {
+			this.deflater = new Deflater(level, gzip);
+			this.gzip = gzip;
+		}
+
+		void start(OutputStream out) throws IOException {
+			this.out = out;
+			deflater.reset();
+			crc.reset();
+			if (gzip) {
+				out.write(GZIP_HEADER);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			single[0] = (byte) b;
+			write(single, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			if (gzip) {
+				crc.update(b, off, len);
+			}
+			deflater.setInput(b, off, len);
+			while (!deflater.needsInput()) {
+				deflate();
+			}
+		}
+
+		void finish() throws IOException {
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate();
+			}
+			if (gzip) {
+				writeInt(buffer, 0, crc.getValue());
+				writeInt(buffer, 4, deflater.getBytesRead());
+				out.write(buffer, 0, 8);
+			}
+			out = null;
+		}
+
+		private void deflate() throws IOException {
+			int length = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+			if (length > 0) {
+				out.write(buffer, 0, length);
+			}
+		}
+
+		/**
+		 * Writes the low 32 bits of {@code value}, little-endian as gzip wants.
+		 */
+		private static void writeInt(byte[] target, int offset, long value) {
+			for (int i = 0; i < 4; i++) {
+				target[offset + i] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		void end() {
+			deflater.end();
+		}
+	}
+}
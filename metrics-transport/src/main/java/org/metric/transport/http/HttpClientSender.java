@@ -1,12 +1,22 @@
 package org.metric.transport.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
@@ -15,9 +25,12 @@ import org.apache.http.client.methods.HttpOptions;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 
@@ -47,9 +60,48 @@ public class HttpClientSender implements HttpSender {
 
 	@Override
 	public Response send(Request request) throws Throwable {
-		
-		HttpRequestBase httpRequest=getRequest(request);
-		HttpResponse httpResponse = client.execute(httpRequest, null).get();
+		try {
+			return sendAsync(request).get();
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Completes the returned future on the I/O thread of the client, callers
+	 * must not block in its callbacks.
+	 */
+	@Override
+	public CompletableFuture<Response> sendAsync(Request request) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		try {
+			client.execute(getRequest(request), new FutureCallback<HttpResponse>() {
+				@Override
+				public void completed(HttpResponse httpResponse) {
+					try {
+						future.complete(toResponse(httpResponse));
+					} catch (IOException e) {
+						future.completeExceptionally(e);
+					}
+				}
+
+				@Override
+				public void failed(Exception e) {
+					future.completeExceptionally(e);
+				}
+
+				@Override
+				public void cancelled() {
+					future.cancel(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private Response toResponse(HttpResponse httpResponse) throws IOException {
 		int code = httpResponse.getStatusLine().getStatusCode();
 		HttpEntity entity = httpResponse.getEntity();
 		if (entity != null && entity.getContent() != null) {
@@ -84,22 +136,125 @@ public class HttpClientSender implements HttpSender {
 			return httpRequest;
 		}
 		//POST、PUT
-		byte[] data=request.getEntity();
-		if (data == null||data.length==0) {
+		Body body = request.getBody();
+		if (body.contentLength() == 0) {
 			return httpRequest;
 		}
 		String contentType = headers.get(HTTP.CONTENT_TYPE);
 		String contentEncoding = headers.get(HTTP.CONTENT_ENCODING);
-		if (contentType == null || contentEncoding == null) {
+		if (contentType == null) {
 			throw new IllegalArgumentException("Entity is not empty,"
-					+ "Content-Type and Content-Encoding is required");
+					+ "Content-Type is required");
 		}
-		ByteArrayEntity entity = new ByteArrayEntity(data);
+		BodyEntity entity = new BodyEntity(body);
 		entity.setContentType(contentType);
-		entity.setContentEncoding(contentEncoding);
+		if (contentEncoding != null) {
+			entity.setContentEncoding(contentEncoding);
+		}
 		((HttpEntityEnclosingRequestBase)httpRequest).setEntity(entity);
 
 		return httpRequest;
 	}
 
+	/**
+	 * Hands a request body to the I/O reactor of the client, which pulls
+	 * content whenever the socket is writable. Buffer bodies are sent from
+	 * their buffers. A writer can not be suspended, so streamed bodies are
+	 * written to chunks first, sent chunked if their length is not known.
+	 */
+	private static final class BodyEntity extends AbstractHttpEntity
+			implements HttpAsyncContentProducer {
+		private static final int CHUNK_BYTES = 64 * 1024;
+
+		private final Body body;
+		private ByteBuffer[] buffers;
+		private int index;
+
+		BodyEntity(Body body) {
+			this.body = body;
+			setChunked(body.contentLength() < 0);
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public long getContentLength() {
+			return body.contentLength();
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			body.writeTo(out);
+			return new ByteArrayInputStream(out.toByteArray());
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			body.writeTo(out);
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+
+		@Override
+		public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+			if (buffers == null) {
+				buffers = body instanceof BufferBody ? ((BufferBody) body).buffers() : chunks(body);
+				index = 0;
+			}
+			while (index < buffers.length) {
+				encoder.write(buffers[index]);
+				if (buffers[index].hasRemaining()) {
+					return;
+				}
+				index++;
+			}
+			encoder.complete();
+		}
+
+		/**
+		 * Called before the request is resent, which starts over.
+		 */
+		@Override
+		public void close() {
+			buffers = null;
+		}
+
+		private static ByteBuffer[] chunks(Body body) throws IOException {
+			List<ByteBuffer> chunks = new ArrayList<>();
+			body.writeTo(new OutputStream() {
+				private ByteBuffer chunk;
+
+				@Override
+				public void write(int b) {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					while (len > 0) {
+						if (chunk == null || !chunk.hasRemaining()) {
+							chunk = ByteBuffer.allocate(CHUNK_BYTES);
+							chunks.add(chunk);
+						}
+						int count = Math.min(len, chunk.remaining());
+						chunk.put(b, off, count);
+						off += count;
+						len -= count;
+					}
+				}
+			});
+			for (ByteBuffer chunk : chunks) {
+				chunk.flip();
+			}
+			return chunks.toArray(new ByteBuffer[0]);
+		}
+	}
+
 }
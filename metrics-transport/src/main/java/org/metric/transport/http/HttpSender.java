@@ -2,14 +2,18 @@ package org.metric.transport.http;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 import org.metrics.util.StringUtil;
 
@@ -22,6 +26,25 @@ import org.metrics.util.StringUtil;
 public interface HttpSender {
 	Response send(Request request) throws Throwable;
 
+	/**
+	 * Sends {@code request} without waiting for the response, where the
+	 * sender supports it. The default sends on the calling thread and returns
+	 * a completed future.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the response, or the failure to send the request
+	 */
+	default CompletableFuture<Response> sendAsync(Request request) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		try {
+			future.complete(send(request));
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
 	default Request.Builder post(String uri) {
 		return newRequest(uri).method(Method.POST);
 	}
@@ -50,16 +73,108 @@ public interface HttpSender {
 		return new Request.Builder(uri, this);
 	}
 
+	/**
+	 * A request body, written by the sender straight to the connection or to
+	 * a compressing stream. A body is written again if the request is resent,
+	 * so writing it must not consume it.
+	 */
+	interface Body {
+		/**
+		 * @return the length in bytes, or -1 if it is not known in advance and
+		 *         the body is sent chunked
+		 */
+		long contentLength();
+
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Serializes a request body as it is sent.
+	 */
+	@FunctionalInterface
+	interface BodyWriter {
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * A body of buffers sent in order, without copying them. Senders writing
+	 * to a channel hand them to it directly.
+	 */
+	final class BufferBody implements Body {
+		private static final BufferBody EMPTY = new BufferBody(new ByteBuffer[0]);
+
+		private final ByteBuffer[] buffers;
+		private final long length;
+
+		BufferBody(ByteBuffer[] buffers) {
+			this.buffers = new ByteBuffer[buffers.length];
+			long length = 0;
+			for (int i = 0; i < buffers.length; i++) {
+				this.buffers[i] = buffers[i].slice();
+				length += buffers[i].remaining();
+			}
+			this.length = length;
+		}
+
+		@Override
+		public long contentLength() {
+			return length;
+		}
+
+		/**
+		 * @return views of the buffers, positioned at their start
+		 */
+		ByteBuffer[] buffers() {
+			ByteBuffer[] views = new ByteBuffer[buffers.length];
+			for (int i = 0; i < buffers.length; i++) {
+				views[i] = buffers[i].duplicate();
+			}
+			return views;
+		}
+
+		/**
+		 * @return the array backing the whole body, or {@code null} if there
+		 *         is none
+		 */
+		byte[] array() {
+			if (buffers.length == 1 && buffers[0].hasArray() && buffers[0].arrayOffset() == 0
+					&& buffers[0].array().length == length) {
+				return buffers[0].array();
+			}
+			return length == 0 ? new byte[0] : null;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			byte[] chunk = null;
+			for (ByteBuffer buffer : buffers) {
+				if (buffer.hasArray()) {
+					out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+					continue;
+				}
+				if (chunk == null) {
+					chunk = new byte[8192];
+				}
+				ByteBuffer view = buffer.duplicate();
+				while (view.hasRemaining()) {
+					int count = Math.min(chunk.length, view.remaining());
+					view.get(chunk, 0, count);
+					out.write(chunk, 0, count);
+				}
+			}
+		}
+	}
+
 	class Request {
 		private final URI uri;
-		private final byte[] entity;
+		private final Body body;
 		private final Method method;
 		private final Map<String, String> requestHeaders;
 
-		private Request(URI uri, byte[] entity, Method method,
+		private Request(URI uri, Body body, Method method,
 				Map<String, String> requestHeaders) {
 			this.uri = uri;
-			this.entity = entity;
+			this.body = body;
 			this.method = method;
 			this.requestHeaders = requestHeaders;
 		}
@@ -68,8 +183,29 @@ public interface HttpSender {
 			return uri;
 		}
 
+		public Body getBody() {
+			return body;
+		}
+
+		/**
+		 * @return the body as one array, a copy unless the request was built
+		 *         from a single array
+		 */
 		public byte[] getEntity() {
-			return entity;
+			if (body instanceof BufferBody) {
+				byte[] array = ((BufferBody) body).array();
+				if (array != null) {
+					return array;
+				}
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					body.contentLength() < 0 ? 8192 : (int) body.contentLength());
+			try {
+				body.writeTo(out);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out.toByteArray();
 		}
 
 		public Method getMethod() {
@@ -88,12 +224,14 @@ public interface HttpSender {
 		public String toString() {
 			StringBuilder printed = new StringBuilder(method.toString()).append(" ")
 					.append(uri.toString()).append("\n");
+			byte[] entity = getEntity();
 			if (entity.length == 0) {
 				printed.append("<no request body>");
-			} else if ("application/json".equals(requestHeaders.get("Content-Type"))) {
-				printed.append(new String(entity));
+			} else if (requestHeaders.containsKey("Content-Encoding")) {
+				printed.append("<").append(requestHeaders.get("Content-Encoding"))
+						.append(" request body>");
 			} else {
-				printed.append(new String(entity));
+				printed.append(new String(entity, StandardCharsets.UTF_8));
 			}
 			return printed.toString();
 		}
@@ -105,7 +243,7 @@ public interface HttpSender {
 			private final URI uri;
 			private final HttpSender sender;
 
-			private byte[] entity = new byte[0];
+			private Body body = BufferBody.EMPTY;
 			private Method method;
 			private Map<String, String> requestHeaders = new LinkedHashMap<>();
 
@@ -188,15 +326,64 @@ public interface HttpSender {
 			 * Set the request body.
 			 *
 			 * @param type
-			 *            The value of the "Content-Type" header to add.
+			 *            The media type of the "Content-Type" header to add.
+			 * @param encode
+			 *            The charset of the content, added to the media type
+			 *            unless {@code null}.
 			 * @param content
 			 *            The request body.
 			 * @return This request builder.
 			 */
 			public final Builder content(String type,String encode,byte[] content) {
+				return content(encode == null ? type : type + "; charset=" + encode,
+						ByteBuffer.wrap(content));
+			}
+
+			/**
+			 * Set the request body to the remaining bytes of {@code buffers},
+			 * which are sent without copying and must not change until the
+			 * request completes.
+			 *
+			 * @param type
+			 *            The value of the "Content-Type" header to add.
+			 * @param buffers
+			 *            The request body.
+			 * @return This request builder.
+			 */
+			public final Builder content(String type, ByteBuffer... buffers) {
+				return content(type, new BufferBody(buffers));
+			}
+
+			/**
+			 * Set the request body to what {@code writer} writes as the request
+			 * is sent, so the body is never held in memory as a whole.
+			 *
+			 * @param type
+			 *            The value of the "Content-Type" header to add.
+			 * @param length
+			 *            The number of bytes the writer writes, or -1 if not
+			 *            known, in which case the body is sent chunked.
+			 * @param writer
+			 *            Writes the request body, possibly more than once.
+			 * @return This request builder.
+			 */
+			public final Builder content(String type, long length, BodyWriter writer) {
+				return content(type, new Body() {
+					@Override
+					public long contentLength() {
+						return length;
+					}
+
+					@Override
+					public void writeTo(OutputStream out) throws IOException {
+						writer.writeTo(out);
+					}
+				});
+			}
+
+			private Builder content(String type, Body body) {
 				header("Content-Type", type);
-				header("Content-Encoding", "UTF-8");
-				entity = content;
+				this.body = body;
 				return this;
 			}
 
@@ -240,8 +427,24 @@ public interface HttpSender {
 			 *             If compression fails.
 			 */
 			public final Builder compress() throws IOException {
-				header("Content-Encoding", "gzip");
-				this.entity = gzip(entity);
+				return compress(Compression.GZIP, Deflater.DEFAULT_COMPRESSION);
+			}
+
+			/**
+			 * Add the "Content-Encoding" header of {@code compression} and compress
+			 * the request body as it is sent, chunked. Call after setting the
+			 * body.
+			 *
+			 * @param compression
+			 *            The compression format.
+			 * @param level
+			 *            The {@link Deflater} level, 1 is fastest, 9 compresses
+			 *            best.
+			 * @return This request builder.
+			 */
+			public final Builder compress(Compression compression, int level) {
+				header("Content-Encoding", compression.contentEncoding());
+				this.body = new CompressedBody(body, compression, level);
 				return this;
 			}
 
@@ -261,16 +464,16 @@ public interface HttpSender {
 				return this;
 			}
 
-			private static byte[] gzip(byte[] data) throws IOException {
-				ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-				try (GZIPOutputStream out = new GZIPOutputStream(bos)) {
-					out.write(data);
-				}
-				return bos.toByteArray();
+			public Request build() {
+				return new Request(uri, body, method, requestHeaders);
 			}
 
 			public Response send() throws Throwable {
-				return sender.send(new Request(uri, entity, method, requestHeaders));
+				return sender.send(build());
+			}
+
+			public CompletableFuture<Response> sendAsync() {
+				return sender.sendAsync(build());
 			}
 		}
 	}
@@ -278,18 +481,33 @@ public interface HttpSender {
 	class Response {
 		public static final String NO_RESPONSE_BODY = "<no response body>";
 		private final int code;
-		private final String body;
+		private final byte[] content;
+		private String body;
 
 		public Response(int code, String body) {
 			this.code = code;
+			this.content = null;
 			this.body = StringUtil.isBlank(body) ? NO_RESPONSE_BODY : body;
 		}
 
+		/**
+		 * Creates a response whose UTF-8 body is only decoded if
+		 * {@link #body()} is called.
+		 */
+		public Response(int code, byte[] content) {
+			this.code = code;
+			this.content = content;
+		}
+
 		public int code() {
 			return code;
 		}
 
 		public String body() {
+			if (body == null) {
+				String decoded = new String(content, StandardCharsets.UTF_8);
+				body = StringUtil.isBlank(decoded) ? NO_RESPONSE_BODY : decoded;
+			}
 			return body;
 		}
 
@@ -329,4 +547,24 @@ public interface HttpSender {
 	enum Method {
 		GET, HEAD, POST, PUT, DELETE, OPTIONS
 	}
+
+	/**
+	 * Request body compression formats.
+	 */
+	enum Compression {
+		/** gzip, accepted by every HTTP server that accepts compression. */
+		GZIP("gzip"),
+		/** zlib, slightly smaller than gzip. */
+		DEFLATE("deflate");
+
+		private final String contentEncoding;
+
+		Compression(String contentEncoding) {
+			this.contentEncoding = contentEncoding;
+		}
+
+		public String contentEncoding() {
+			return contentEncoding;
+		}
+	}
 }
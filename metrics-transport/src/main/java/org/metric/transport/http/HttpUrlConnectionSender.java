@@ -11,7 +11,11 @@ import java.util.Map;
 import org.metrics.util.IOUtil;
 
 /**
- * {@link HttpURLConnection}-based {@link HttpSender}.
+ * {@link HttpURLConnection}-based {@link HttpSender}. Response bodies are read
+ * to the end and closed rather than disconnecting, so the JDK keeps the
+ * connection alive for the next request to the same host. Bodies are
+ * streamed, chunked if their length is not known. See
+ * {@link PooledHttpSender} for a sender that manages its own connections.
  *
  * @author Jon Schneider
  * @author Johnny Lim
@@ -67,14 +71,14 @@ public class HttpUrlConnectionSender implements HttpSender {
 
 	@Override
 	public Response send(Request request) throws IOException {
-		HttpURLConnection con = null;
+		HttpURLConnection con;
 		URL url=request.getUrI().toURL();
+		if (proxy != null) {
+			con = (HttpURLConnection) url.openConnection(proxy);
+		} else {
+			con = (HttpURLConnection) url.openConnection();
+		}
 		try {
-			if (proxy != null) {
-				con = (HttpURLConnection) url.openConnection(proxy);
-			} else {
-				con = (HttpURLConnection) url.openConnection();
-			}
 			con.setConnectTimeout(connectTimeoutMs);
 			con.setReadTimeout(readTimeoutMs);
 			Method method = request.getMethod();
@@ -87,8 +91,14 @@ public class HttpUrlConnectionSender implements HttpSender {
 
 			if (method != Method.GET) {
 				con.setDoOutput(true);
+				Body body = request.getBody();
+				if (body.contentLength() >= 0) {
+					con.setFixedLengthStreamingMode(body.contentLength());
+				} else {
+					con.setChunkedStreamingMode(0);
+				}
 				try (OutputStream os = con.getOutputStream()) {
-					os.write(request.getEntity());
+					body.writeTo(os);
 					os.flush();
 				}
 			}
@@ -106,13 +116,10 @@ public class HttpUrlConnectionSender implements HttpSender {
 			}
 
 			return new Response(status, body);
-		} finally {
-			try {
-				if (con != null) {
-					con.disconnect();
-				}
-			} catch (Exception ignore) {
-			}
+		} catch (IOException | RuntimeException e) {
+			// the connection is in an unknown state, do not reuse it
+			con.disconnect();
+			throw e;
 		}
 	}
 }
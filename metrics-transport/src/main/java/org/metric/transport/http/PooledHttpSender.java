@@ -0,0 +1,601 @@
+package org.metric.transport.http;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HttpSender} keeping HTTP/1.1 connections open between requests, so
+ * a report does not pay a TCP handshake per node. Connections are pooled per
+ * host and port, the most recently used one is reused first, and one that
+ * was idle too long or was closed by the server is replaced by a new one.
+ *
+ * <p>
+ * The request head and a buffer body go out in one gathering write without
+ * copying the body, other bodies are streamed, chunked if their length is
+ * not known. Response bodies are read as bytes and only decoded when
+ * {@link Response#body()} is called. Only plain {@code http} is supported,
+ * use {@link HttpClientSender} for TLS.
+ *
+ * <p>
+ * A request that does not finish writing within the write timeout fails with
+ * a {@link SocketTimeoutException}, the connection being closed under it. A
+ * request is sent again once on a new connection when a pooled connection
+ * fails without a timeout before any response byte arrived, which is how a
+ * connection the server closed after the staleness check shows. This applies
+ * to {@code POST} too: callers such as bulk reporters resend a failed payload
+ * anyway, and the server answered nothing that the retry could duplicate.
+ *
+ * <p>
+ * {@link #sendAsync(Request)} runs requests on daemon threads of the sender.
+ */
+public class PooledHttpSender implements HttpSender, Closeable {
+
+	private static final int DEFAULT_CONNECT_TIMEOUT_MS = 1000;
+	private static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+	private static final int DEFAULT_WRITE_TIMEOUT_MS = 10000;
+	private static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+	private static final int DEFAULT_MAX_IDLE_PER_HOST = 4;
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private final int connectTimeoutMs;
+	private final int readTimeoutMs;
+	private final long writeTimeoutMs;
+	private final long idleTimeoutMs;
+	private final int maxIdlePerHost;
+	/** Idle connections per host and port, most recently used first. */
+	private final Map<String, Deque<Connection>> idle = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+	/** Closes the connections whose write is past its deadline. */
+	private final ScheduledThreadPoolExecutor watchdog;
+	private volatile boolean closed;
+
+	/**
+	 * Use the default timeouts, keeping up to 4 connections per host idle
+	 * for 30 seconds.
+	 */
+	public PooledHttpSender() {
+		this(Duration.ofMillis(DEFAULT_CONNECT_TIMEOUT_MS), Duration.ofMillis(DEFAULT_READ_TIMEOUT_MS));
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            connect timeout when establishing a connection
+	 * @param readTimeout
+	 *            read timeout when receiving a response
+	 */
+	public PooledHttpSender(Duration connectTimeout, Duration readTimeout) {
+		this(connectTimeout, readTimeout, Duration.ofMillis(DEFAULT_IDLE_TIMEOUT_MS),
+				DEFAULT_MAX_IDLE_PER_HOST);
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            connect timeout when establishing a connection
+	 * @param readTimeout
+	 *            read timeout when receiving a response
+	 * @param idleTimeout
+	 *            how long an unused connection is kept open, keep it below
+	 *            the idle timeout of the server
+	 * @param maxIdlePerHost
+	 *            how many unused connections are kept open per host and port
+	 */
+	public PooledHttpSender(Duration connectTimeout, Duration readTimeout, Duration idleTimeout,
+			int maxIdlePerHost) {
+		this(connectTimeout, readTimeout, Duration.ofMillis(DEFAULT_WRITE_TIMEOUT_MS), idleTimeout,
+				maxIdlePerHost);
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            connect timeout when establishing a connection
+	 * @param readTimeout
+	 *            read timeout when receiving a response
+	 * @param writeTimeout
+	 *            how long writing a request may take in total
+	 * @param idleTimeout
+	 *            how long an unused connection is kept open, keep it below
+	 *            the idle timeout of the server
+	 * @param maxIdlePerHost
+	 *            how many unused connections are kept open per host and port
+	 */
+	public PooledHttpSender(Duration connectTimeout, Duration readTimeout, Duration writeTimeout,
+			Duration idleTimeout, int maxIdlePerHost) {
+		this.connectTimeoutMs = (int) connectTimeout.toMillis();
+		this.readTimeoutMs = (int) readTimeout.toMillis();
+		this.writeTimeoutMs = writeTimeout.toMillis();
+		this.idleTimeoutMs = idleTimeout.toMillis();
+		this.maxIdlePerHost = maxIdlePerHost;
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-http-sender-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "metrics-http-sender-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		watchdog.setRemoveOnCancelPolicy(true);
+	}
+
+	@Override
+	public Response send(Request request) throws IOException {
+		URI uri = request.getUrI();
+		if (!"http".equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("Only http is supported: " + uri);
+		}
+		int port = uri.getPort() == -1 ? 80 : uri.getPort();
+		String key = uri.getHost() + ":" + port;
+		Connection connection = acquire(key, uri.getHost(), port);
+		try {
+			return exchange(key, connection, request);
+		} catch (IOException e) {
+			// a timeout is a slow peer rather than a closed connection
+			if (!connection.pooled || connection.responseStarted || e instanceof SocketTimeoutException
+					|| closed) {
+				throw e;
+			}
+			return exchange(key, new Connection(uri.getHost(), port), request);
+		}
+	}
+
+	private Response exchange(String key, Connection connection, Request request) throws IOException {
+		boolean reusable = false;
+		try {
+			Response response = connection.exchange(request);
+			reusable = connection.keepAlive && !closed;
+			return response;
+		} finally {
+			if (reusable) {
+				release(key, connection);
+			} else {
+				connection.close();
+			}
+		}
+	}
+
+	@Override
+	public CompletableFuture<Response> sendAsync(Request request) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(send(request));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Closes the idle connections and stops the threads of
+	 * {@link #sendAsync(Request)}. Connections in use are closed once their
+	 * request completes.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		executor.shutdown();
+		// deadlines of writes in progress still fire
+		watchdog.shutdown();
+		for (Deque<Connection> connections : idle.values()) {
+			synchronized (connections) {
+				connections.forEach(Connection::close);
+				connections.clear();
+			}
+		}
+	}
+
+	private Connection acquire(String key, String host, int port) throws IOException {
+		Deque<Connection> connections = idle.get(key);
+		if (connections != null) {
+			long now = System.currentTimeMillis();
+			while (true) {
+				Connection connection;
+				synchronized (connections) {
+					connection = connections.pollFirst();
+				}
+				if (connection == null) {
+					break;
+				}
+				if (now - connection.idleSince < idleTimeoutMs && !connection.isStale()) {
+					return connection;
+				}
+				connection.close();
+			}
+		}
+		return new Connection(host, port);
+	}
+
+	private void release(String key, Connection connection) {
+		connection.idleSince = System.currentTimeMillis();
+		connection.pooled = true;
+		Deque<Connection> connections = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+		synchronized (connections) {
+			if (connections.size() < maxIdlePerHost) {
+				connections.addFirst(connection);
+				return;
+			}
+		}
+		connection.close();
+	}
+
+	private final class Connection {
+		private final SocketChannel channel;
+		private final InputStream in;
+		private final String host;
+		private final byte[] buffer = new byte[8192];
+		private final ByteBuffer streamBuffer = ByteBuffer.allocate(8192);
+		private int position;
+		private int limit;
+		private boolean keepAlive;
+		private long idleSince;
+		/** Whether the connection served a request before. */
+		private boolean pooled;
+		/** Whether a byte of the current response arrived. */
+		private boolean responseStarted;
+		private volatile boolean writeTimedOut;
+		/** The framing of the response being read. */
+		private boolean chunked;
+		private int contentLength;
+
+		Connection(String host, int port) throws IOException {
+			this.host = port == 80 ? host : host + ":" + port;
+			this.channel = SocketChannel.open();
+			try {
+				channel.socket().setTcpNoDelay(true);
+				channel.socket().setSoTimeout(readTimeoutMs);
+				channel.socket().connect(new InetSocketAddress(host, port), connectTimeoutMs);
+				// the stream of the socket honours the read timeout, the channel does not
+				this.in = channel.socket().getInputStream();
+			} catch (IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * A pooled connection the server closed, or that has unexpected bytes
+		 * waiting, must not be used for the next request.
+		 */
+		boolean isStale() {
+			if (position < limit) {
+				return true;
+			}
+			try {
+				channel.configureBlocking(false);
+				int read = channel.read(ByteBuffer.allocate(1));
+				channel.configureBlocking(true);
+				return read != 0;
+			} catch (IOException e) {
+				return true;
+			}
+		}
+
+		Response exchange(Request request) throws IOException {
+			responseStarted = false;
+			write(request);
+			keepAlive = true;
+			int code;
+			do {
+				code = readHead();
+			} while (code >= 100 && code < 200);
+			byte[] content;
+			if (request.getMethod() == Method.HEAD || code == 204 || code == 304) {
+				content = new byte[0];
+			} else if (chunked) {
+				content = readChunked();
+			} else if (contentLength >= 0) {
+				content = new byte[contentLength];
+				readFully(content, 0, contentLength);
+			} else {
+				keepAlive = false;
+				content = readToEnd();
+			}
+			return new Response(code, content);
+		}
+
+		/**
+		 * Writes within the write timeout. Blocking channel writes ignore the
+		 * socket timeout, so the watchdog closes the channel under a write
+		 * past its deadline.
+		 */
+		private void write(Request request) throws IOException {
+			ScheduledFuture<?> deadline;
+			try {
+				deadline = watchdog.schedule(this::timeOut, writeTimeoutMs, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				throw new IOException("Sender is closed", e);
+			}
+			try {
+				writeRequest(request);
+			} catch (IOException e) {
+				if (writeTimedOut) {
+					SocketTimeoutException timeout = new SocketTimeoutException(
+							"Write timed out after " + writeTimeoutMs + " ms");
+					timeout.initCause(e);
+					throw timeout;
+				}
+				throw e;
+			} finally {
+				deadline.cancel(false);
+			}
+		}
+
+		private void timeOut() {
+			writeTimedOut = true;
+			close();
+		}
+
+		/**
+		 * Writes the head and a buffer body in one gathering write. Other
+		 * bodies are streamed after the head, chunked if their length is not
+		 * known.
+		 */
+		private void writeRequest(Request request) throws IOException {
+			URI uri = request.getUrI();
+			Body body = request.getBody();
+			long length = body.contentLength();
+			StringBuilder head = new StringBuilder(256);
+			head.append(request.getMethod().name()).append(' ');
+			head.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+			if (uri.getRawQuery() != null) {
+				head.append('?').append(uri.getRawQuery());
+			}
+			head.append(" HTTP/1.1\r\nHost: ").append(host).append("\r\n");
+			for (Map.Entry<String, String> header : request.getRequestHeaders().entrySet()) {
+				head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+			}
+			if (length < 0) {
+				head.append("Transfer-Encoding: chunked\r\n");
+			} else if (length > 0 || request.getMethod() == Method.POST
+					|| request.getMethod() == Method.PUT) {
+				head.append("Content-Length: ").append(length).append("\r\n");
+			}
+			head.append("\r\n");
+			ByteBuffer headBuffer = ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+			if (body instanceof BufferBody) {
+				ByteBuffer[] bodyBuffers = ((BufferBody) body).buffers();
+				ByteBuffer[] buffers = new ByteBuffer[bodyBuffers.length + 1];
+				buffers[0] = headBuffer;
+				System.arraycopy(bodyBuffers, 0, buffers, 1, bodyBuffers.length);
+				writeFully(buffers);
+			} else {
+				BodyStream out = new BodyStream(headBuffer, length < 0);
+				body.writeTo(out);
+				out.finish();
+			}
+		}
+
+		private void writeFully(ByteBuffer... buffers) throws IOException {
+			for (ByteBuffer buffer : buffers) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffers);
+				}
+			}
+		}
+
+		/**
+		 * Reads the status line and headers.
+		 *
+		 * @return the status code
+		 */
+		private int readHead() throws IOException {
+			String status = readLine();
+			if (status.length() < 12 || !status.startsWith("HTTP/1.")) {
+				throw new IOException("Invalid status line: " + status);
+			}
+			if (status.startsWith("HTTP/1.0")) {
+				keepAlive = false;
+			}
+			chunked = false;
+			contentLength = -1;
+			String line;
+			while (!(line = readLine()).isEmpty()) {
+				int colon = line.indexOf(':');
+				if (colon <= 0) {
+					continue;
+				}
+				String name = line.substring(0, colon).trim();
+				String value = line.substring(colon + 1).trim();
+				if ("Content-Length".equalsIgnoreCase(name)) {
+					contentLength = Integer.parseInt(value);
+				} else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+					chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+				} else if ("Connection".equalsIgnoreCase(name)) {
+					keepAlive = "keep-alive".equalsIgnoreCase(value);
+				}
+			}
+			return Integer.parseInt(status.substring(9, 12));
+		}
+
+		private byte[] readChunked() throws IOException {
+			byte[] content = new byte[1024];
+			int size = 0;
+			while (true) {
+				String line = readLine();
+				int extension = line.indexOf(';');
+				int chunk = Integer.parseInt((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+				if (chunk == 0) {
+					while (!readLine().isEmpty()) {
+						// skip trailers
+					}
+					return Arrays.copyOf(content, size);
+				}
+				if (size + chunk > content.length) {
+					content = Arrays.copyOf(content, Math.max(content.length * 2, size + chunk));
+				}
+				readFully(content, size, chunk);
+				size += chunk;
+				readLine();
+			}
+		}
+
+		private byte[] readToEnd() throws IOException {
+			byte[] content = new byte[1024];
+			int size = 0;
+			while (fill()) {
+				int count = limit - position;
+				if (size + count > content.length) {
+					content = Arrays.copyOf(content, Math.max(content.length * 2, size + count));
+				}
+				System.arraycopy(buffer, position, content, size, count);
+				size += count;
+				position = limit;
+			}
+			return Arrays.copyOf(content, size);
+		}
+
+		private void readFully(byte[] target, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (position == limit && !fill()) {
+					throw new EOFException("Connection closed before the response body ended");
+				}
+				int count = Math.min(length, limit - position);
+				System.arraycopy(buffer, position, target, offset, count);
+				position += count;
+				offset += count;
+				length -= count;
+			}
+		}
+
+		private String readLine() throws IOException {
+			StringBuilder line = new StringBuilder(64);
+			while (true) {
+				if (position == limit && !fill()) {
+					throw new EOFException("Connection closed before the response ended");
+				}
+				char c = (char) (buffer[position++] & 0xff);
+				if (c == '\n') {
+					int length = line.length();
+					if (length > 0 && line.charAt(length - 1) == '\r') {
+						line.setLength(length - 1);
+					}
+					return line.toString();
+				}
+				line.append(c);
+			}
+		}
+
+		/**
+		 * @return whether more bytes were read, {@code false} at the end of
+		 *         the stream
+		 */
+		private boolean fill() throws IOException {
+			int read = in.read(buffer);
+			if (read < 0) {
+				return false;
+			}
+			responseStarted = true;
+			position = 0;
+			limit = read;
+			return true;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException ignore) {
+			}
+		}
+
+		/**
+		 * Collects a streamed body into the buffer of the connection and
+		 * writes it out when full, the first time together with the request
+		 * head. Writes larger than the buffer go to the channel directly.
+		 */
+		private final class BodyStream extends OutputStream {
+			private final boolean chunked;
+			private ByteBuffer head;
+
+			BodyStream(ByteBuffer head, boolean chunked) {
+				this.head = head;
+				this.chunked = chunked;
+				streamBuffer.clear();
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				if (!streamBuffer.hasRemaining()) {
+					flush();
+				}
+				streamBuffer.put((byte) b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (len > streamBuffer.remaining()) {
+					flush();
+				}
+				if (len >= streamBuffer.capacity()) {
+					write(ByteBuffer.wrap(b, off, len));
+				} else {
+					streamBuffer.put(b, off, len);
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				streamBuffer.flip();
+				if (streamBuffer.hasRemaining()) {
+					write(streamBuffer);
+				}
+				streamBuffer.clear();
+			}
+
+			void finish() throws IOException {
+				flush();
+				ByteBuffer end = chunked ? ByteBuffer.wrap(LAST_CHUNK) : ByteBuffer.allocate(0);
+				if (head != null) {
+					writeFully(head, end);
+				} else {
+					writeFully(end);
+				}
+			}
+
+			private void write(ByteBuffer data) throws IOException {
+				ByteBuffer prefix = chunked
+						? ByteBuffer.wrap((Integer.toHexString(data.remaining()) + "\r\n")
+								.getBytes(StandardCharsets.ISO_8859_1))
+						: ByteBuffer.allocate(0);
+				ByteBuffer suffix = ByteBuffer.wrap(chunked ? CRLF : new byte[0]);
+				if (head != null) {
+					writeFully(head, prefix, data, suffix);
+					head = null;
+				} else {
+					writeFully(prefix, data, suffix);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.metric.transport.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.metric.transport.http.HttpSender.Compression;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpSenderTest {
+
+	private HttpServer server;
+	private String url;
+	private List<HttpSender> senders;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+		server.createContext("/", HttpSenderTest::echo);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+		senders = Arrays.asList(new PooledHttpSender(), new HttpUrlConnectionSender(),
+				new HttpClientSender());
+	}
+
+	@After
+	public void tearDown() {
+		((PooledHttpSender) senders.get(0)).close();
+		server.stop(0);
+	}
+
+	/**
+	 * Echoes the request body, decompressed if it is compressed.
+	 */
+	private static void echo(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		if ("gzip".equals(encoding)) {
+			in = new GZIPInputStream(in);
+		} else if ("deflate".equals(encoding)) {
+			in = new InflaterInputStream(in);
+		} else if (encoding != null) {
+			exchange.sendResponseHeaders(415, -1);
+			return;
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			body.write(buffer, 0, read);
+		}
+		in.close();
+		exchange.sendResponseHeaders(200, body.size());
+		try (OutputStream out = exchange.getResponseBody()) {
+			body.writeTo(out);
+		}
+	}
+
+	private static String lines(int count) {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			lines.append("{\"i\":").append(i).append("}\n");
+		}
+		return lines.toString();
+	}
+
+	@Test
+	public void bufferBodyTest() throws Throwable {
+		byte[] first = "{\"a\":1}\n".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer second = ByteBuffer.allocateDirect(8);
+		second.put("{\"b\":2}\n".getBytes(StandardCharsets.UTF_8)).flip();
+		for (HttpSender sender : senders) {
+			String body = sender.post(url)
+					.content("application/json", ByteBuffer.wrap(first, 0, first.length), second)
+					.send().body();
+			assertEquals(sender.getClass().getSimpleName(), "{\"a\":1}\n{\"b\":2}\n", body);
+		}
+	}
+
+	@Test
+	public void streamedBodyTest() throws Throwable {
+		String expected = lines(20000);
+		byte[] bytes = expected.getBytes(StandardCharsets.UTF_8);
+		for (HttpSender sender : senders) {
+			String name = sender.getClass().getSimpleName();
+			assertEquals(name, expected, sender.post(url)
+					.content("application/json", -1, out -> out.write(bytes)).send().body());
+			assertEquals(name, expected, sender.post(url)
+					.content("application/json", bytes.length, out -> {
+						for (byte b : bytes) {
+							out.write(b);
+						}
+					}).send().body());
+			assertEquals(name, expected,
+					sender.post(url).jsonContent(expected).compress().send().body());
+		}
+	}
+
+	@Test
+	public void compressionTest() throws Throwable {
+		String expected = lines(20000);
+		for (HttpSender sender : senders) {
+			for (Compression compression : Compression.values()) {
+				for (int level : new int[] { 1, 9 }) {
+					// twice, to go through a pooled compressor
+					for (int i = 0; i < 2; i++) {
+						assertEquals(sender.getClass().getSimpleName(), expected, sender.post(url)
+								.content("application/json", "UTF-8", expected.getBytes(StandardCharsets.UTF_8))
+								.compress(compression, level)
+								.send().body());
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package org.metric.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.metric.transport.http.HttpSender.Response;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledHttpSenderTest {
+
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+	private HttpServer server;
+	private PooledHttpSender sender;
+	private String url;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+		server.createContext("/", this::echo);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort();
+		sender = new PooledHttpSender();
+	}
+
+	@After
+	public void tearDown() {
+		sender.close();
+		server.stop(0);
+	}
+
+	/**
+	 * Echoes the request body, chunked if the path asks for it.
+	 */
+	private void echo(HttpExchange exchange) throws IOException {
+		clientPorts.add(exchange.getRemoteAddress().getPort());
+		byte[] body;
+		try (InputStream in = exchange.getRequestBody()) {
+			body = readAll(in);
+		}
+		boolean chunked = exchange.getRequestURI().getPath().startsWith("/chunked");
+		exchange.sendResponseHeaders(200, chunked ? 0 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void keepAliveTest() throws Throwable {
+		for (int i = 0; i < 5; i++) {
+			Response response = sender.post(url + "/_bulk?filter_path=errors").jsonContent("{\"i\":" + i + "}")
+					.send();
+			assertEquals(200, response.code());
+			assertEquals("{\"i\":" + i + "}", response.body());
+		}
+		assertEquals(1, clientPorts.size());
+	}
+
+	@Test
+	public void chunkedTest() throws Throwable {
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			large.append(i).append('\n');
+		}
+		Response response = sender.post(url + "/chunked").plainText(large.toString()).send();
+		assertEquals(large.toString(), response.body());
+		response = sender.post(url + "/chunked").plainText("é").sendAsync().get();
+		assertEquals("é", response.body());
+		assertEquals(1, clientPorts.size());
+	}
+
+	@Test
+	public void writeTimeoutTest() throws Throwable {
+		try (ServerSocket stalled = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				PooledHttpSender timed = new PooledHttpSender(Duration.ofSeconds(1), Duration.ofSeconds(1),
+						Duration.ofMillis(200), Duration.ofSeconds(30), 4)) {
+			// accepted but never read, so the write blocks once the buffers are full
+			long start = System.currentTimeMillis();
+			try {
+				timed.post("http://127.0.0.1:" + stalled.getLocalPort())
+						.content("application/octet-stream", ByteBuffer.allocate(64 << 20)).send();
+				fail();
+			} catch (SocketTimeoutException expected) {
+			}
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		}
+	}
+
+	@Test
+	public void retryClosedConnectionTest() throws Throwable {
+		try (ServerSocket closing = new ServerSocket(0, 4, InetAddress.getLoopbackAddress())) {
+			String closingUrl = "http://127.0.0.1:" + closing.getLocalPort();
+			Thread server = new Thread(() -> {
+				try (Socket first = closing.accept()) {
+					readHead(first.getInputStream());
+					first.getOutputStream().write(ok());
+					// closes the pooled connection after reading the next request
+					readHead(first.getInputStream());
+				} catch (IOException e) {
+					return;
+				}
+				try (Socket second = closing.accept()) {
+					readHead(second.getInputStream());
+					second.getOutputStream().write(ok());
+				} catch (IOException e) {
+					return;
+				}
+			});
+			server.start();
+
+			assertEquals("ok", sender.get(closingUrl).send().body());
+			assertEquals("ok", sender.get(closingUrl).send().body());
+			server.join(5000);
+		}
+	}
+
+	@Test
+	public void retryClosedPostTest() throws Throwable {
+		try (ServerSocket closing = new ServerSocket(0, 4, InetAddress.getLoopbackAddress())) {
+			String closingUrl = "http://127.0.0.1:" + closing.getLocalPort();
+			Thread server = new Thread(() -> {
+				try (Socket first = closing.accept()) {
+					readHead(first.getInputStream());
+					first.getOutputStream().write(ok());
+					// closes the pooled connection before answering the post
+					readHead(first.getInputStream());
+				} catch (IOException e) {
+					return;
+				}
+				try (Socket second = closing.accept()) {
+					readHead(second.getInputStream());
+					second.getOutputStream().write(ok());
+				} catch (IOException e) {
+					return;
+				}
+			});
+			server.start();
+
+			sender.get(closingUrl).send();
+			// no body, so the server reads the whole request with its head
+			assertEquals("ok", sender.post(closingUrl).send().body());
+			server.join(5000);
+		}
+	}
+
+	private static byte[] ok() {
+		return "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Reads a request without a body up to the empty line.
+	 */
+	private static void readHead(InputStream in) throws IOException {
+		int matched = 0;
+		while (matched < 4) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("closed");
+			}
+			matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+		}
+	}
+}